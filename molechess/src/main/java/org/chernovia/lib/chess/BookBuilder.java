@@ -0,0 +1,121 @@
+package org.chernovia.lib.chess;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+import com.github.bhlangonijr.chesslib.Board;
+import com.github.bhlangonijr.chesslib.move.Move;
+
+/**
+ * Offline tool that writes an OpeningBook.
+ * Starting from the initial position, each position is searched several times
+ * per strength profile (limited strength engines vary their moves, so the
+ * sample counts become the move weights) and every move found is expanded,
+ * breadth first, up to the given number of plies.
+ * Usage: BookBuilder output engine(path|java|fake) plies elos [samples] [movetime] [maxPositions]
+ * e.g. BookBuilder resources/book.bin stockfish/stockfish 8 1600,2200 4 200 20000
+ */
+public class BookBuilder {
+	
+	private static final Logger logger = Logger.getLogger(BookBuilder.class.getName());
+	
+	public static class Entry {
+		final long key; final int move, weight, profile;
+		public Entry(long k, int m, int w, int p) { key = k; move = m; weight = w; profile = p; }
+	}
+	
+	public static void main(String[] args) throws Exception {
+		String output = args[0], path = args[1];
+		int plies = Integer.parseInt(args[2]);
+		ArrayList<Integer> elos = new ArrayList<Integer>();
+		for (String elo : args[3].split(",")) elos.add(Integer.parseInt(elo.trim()));
+		int samples = args.length > 4 ? Integer.parseInt(args[4]) : 4;
+		int moveTime = args.length > 5 ? Integer.parseInt(args[5]) : 200;
+		int maxPositions = args.length > 6 ? Integer.parseInt(args[6]) : 20000;
+		int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+		Engine engine;
+		if (path.equals("java")) engine = null; //JavaPlug isn't shareable, one per search
+		else if (path.equals("fake")) engine = new FakeEngine();
+		else { engine = new UciPool(path, threads); engine.setOptions(1, 16); }
+		if (engine != null && !engine.start()) { logger.severe("Failed to start engine: " + path); return; }
+		List<Entry> entries = build(engine, plies, elos, samples, moveTime, maxPositions, threads);
+		if (engine != null) engine.stop();
+		write(output, entries, elos);
+		logger.info("Wrote " + entries.size() + " entries to " + output);
+	}
+	
+	public static List<Entry> build(Engine engine, int plies, List<Integer> elos, int samples, int moveTime, 
+			int maxPositions, int threads) throws Exception {
+		ArrayList<Entry> entries = new ArrayList<Entry>();
+		HashSet<Long> visited = new HashSet<Long>();
+		ArrayList<String> level = new ArrayList<String>();
+		level.add(new Board().getFen());
+		visited.add(new Board().getZobristKey());
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		for (int ply = 0; ply < plies && !level.isEmpty(); ply++) {
+			ArrayList<Future<List<Entry>>> results = new ArrayList<>();
+			for (String fen : level) {
+				results.add(pool.submit(() -> searchPosition(engine, fen, elos, samples, moveTime)));
+			}
+			ArrayList<String> next = new ArrayList<String>();
+			for (int i = 0; i < level.size(); i++) {
+				List<Entry> found = results.get(i).get();
+				entries.addAll(found);
+				Board board = new Board(); board.loadFromFen(level.get(i));
+				for (Entry entry : found) {
+					if (!board.doMove(new Move(MoveCodec.decode(entry.move), board.getSideToMove()))) continue;
+					if (visited.size() < maxPositions && visited.add(board.getZobristKey())) next.add(board.getFen());
+					board.undoMove();
+				}
+			}
+			logger.info("Ply " + (ply + 1) + ": " + level.size() + " positions, " + entries.size() + " entries");
+			level = next;
+		}
+		pool.shutdown();
+		return entries;
+	}
+	
+	private static List<Entry> searchPosition(Engine engine, String fen, List<Integer> elos, int samples, int moveTime) {
+		Board board = new Board(); board.loadFromFen(fen);
+		long key = board.getZobristKey();
+		ArrayList<Entry> found = new ArrayList<Entry>();
+		for (int elo : elos) {
+			HashMap<Integer, Integer> counts = new HashMap<Integer, Integer>();
+			for (int i = 0; i < samples; i++) {
+				SearchRequest request = new SearchRequest(fen, moveTime, elo);
+				SearchResult result = engine != null ? engine.search(request) : new JavaPlug().search(request);
+				int move = MoveCodec.encode(result.bestMove);
+				if (move != MoveCodec.NONE) counts.merge(move, 1, Integer::sum);
+			}
+			for (Map.Entry<Integer, Integer> count : counts.entrySet()) {
+				found.add(new Entry(key, count.getKey(), count.getValue(), elo));
+			}
+		}
+		return found;
+	}
+	
+	public static void write(String path, List<Entry> entries, List<Integer> elos) throws IOException {
+		Collections.sort(entries, (a, b) -> a.key != b.key ? Long.compare(a.key, b.key) : 
+			a.profile != b.profile ? a.profile - b.profile : a.move - b.move);
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)))) {
+			out.writeInt(OpeningBook.MAGIC); out.writeInt(OpeningBook.VERSION);
+			out.writeInt(entries.size()); out.writeInt(elos.size());
+			for (int elo : elos) out.writeShort(elo);
+			for (Entry entry : entries) {
+				out.writeLong(entry.key); out.writeShort(entry.move); out.writeShort(entry.weight);
+				out.writeShort(entry.profile); out.writeShort(0);
+			}
+		}
+	}
+}
@@ -0,0 +1,31 @@
+package org.chernovia.lib.chess;
+
+/**
+ * Anything that can search a position: a local UCI process (StockPlug), a pool of
+ * them (UciPool), the in-process JavaPlug, or the deterministic FakeEngine.
+ */
+public interface Engine {
+	
+	public String getName();
+	
+	/**
+	 * @return True on success. False otherwise
+	 */
+	public boolean start();
+	
+	public void setOptions(int threads, int hashsize);
+	
+	/**
+	 * Sets the resident memory above which the EngineSupervisor kills this engine's process
+	 * (if it has one); call before start.
+	 */
+	public default void setMaxMemoryMB(int mb) {}
+	
+	/**
+	 * Blocks until the search completes.
+	 * @return the result; its bestMove is null if the search failed
+	 */
+	public SearchResult search(SearchRequest request);
+	
+	public void stop();
+}
@@ -0,0 +1,55 @@
+package org.chernovia.lib.chess;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight Recorder events for the engine layer.
+ * Callers begin an event, and fill in and commit it only if shouldCommit(),
+ * so a disabled event costs next to nothing.
+ */
+public class EngineEvents {
+
+	@Name("molechess.EngineSpawn")
+	@Label("Engine Spawn")
+	@Category({ "MoleChess", "Engine" })
+	@Description("Starting an engine process")
+	public static class Spawn extends Event {
+		@Label("Path") public String path;
+		@Label("PID") public long pid;
+		@Label("Started") public boolean started;
+	}
+
+	@Name("molechess.EngineSearch")
+	@Label("Engine Search")
+	@Category({ "MoleChess", "Engine" })
+	@Description("One search, from request to best move")
+	public static class Search extends Event {
+		@Label("Engine") public String engine;
+		@Label("FEN") public String fen;
+		@Label("Move Time") public int moveTime;
+		@Label("Elo") public int elo;
+		@Label("Best Move") public String bestMove;
+		@Label("Depth") public int depth;
+		@Label("Nodes") public long nodes;
+		@Label("Score") public int score;
+		@Label("Parse Time") @Timespan(Timespan.NANOSECONDS) public long parseNanos;
+	}
+
+	/**
+	 * Commits a search event begun before the request was sent.
+	 */
+	public static void commit(Search event, SearchRequest request, SearchResult result) {
+		event.end();
+		if (event.shouldCommit()) {
+			event.engine = result.engine; event.fen = request.fen; event.moveTime = request.moveTime; event.elo = request.elo;
+			event.bestMove = result.bestMove; event.depth = result.depth; event.nodes = result.nodes;
+			event.score = result.getScore(); event.parseNanos = result.parseNanos;
+			event.commit();
+		}
+	}
+}
@@ -0,0 +1,73 @@
+package org.chernovia.lib.chess;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Binary protocol between the game server and remote EngineWorkers.
+ * Every frame starts with a magic number, a version byte and an opcode:
+ * PING is answered by PONG with the worker's number of busy engines,
+ * SEARCH by RESULT (or ERROR with a message).
+ */
+public class EngineRpc {
+	public static final int MAGIC = 0x4D43; //"MC"
+	public static final byte VERSION = 1;
+	public static final byte PING = 1, PONG = 2, SEARCH = 3, RESULT = 4, ERROR = 5;
+	
+	public static void writeHeader(DataOutputStream out, byte op) throws IOException {
+		out.writeShort(MAGIC); out.writeByte(VERSION); out.writeByte(op);
+	}
+	
+	/**
+	 * @return the opcode
+	 */
+	public static byte readHeader(DataInputStream in) throws IOException {
+		if (in.readUnsignedShort() != MAGIC) throw new IOException("Bad magic");
+		byte version = in.readByte();
+		if (version != VERSION) throw new IOException("Unsupported version: " + version);
+		return in.readByte();
+	}
+	
+	public static void writeRequest(DataOutputStream out, SearchRequest request) throws IOException {
+		writeHeader(out, SEARCH);
+		out.writeUTF(request.fen);
+		out.writeInt(request.moveTime); out.writeInt(request.elo); out.writeInt(request.depth);
+		out.flush();
+	}
+	
+	public static SearchRequest readRequest(DataInputStream in) throws IOException {
+		return new SearchRequest(in.readUTF(), in.readInt(), in.readInt(), in.readInt());
+	}
+	
+	public static void writeResult(DataOutputStream out, SearchResult result) throws IOException {
+		writeHeader(out, RESULT);
+		out.writeUTF(result.engine);
+		writeString(out, result.bestMove); writeString(out, result.ponder); writeString(out, result.pv);
+		out.writeInt(result.scoreCp); out.writeInt(result.mate); 
+		out.writeInt(result.depth); out.writeInt(result.seldepth);
+		out.writeLong(result.nodes); out.writeLong(result.nps); out.writeLong(result.time);
+		out.flush();
+	}
+	
+	public static SearchResult readResult(DataInputStream in) throws IOException {
+		SearchResult result = new SearchResult(in.readUTF());
+		result.bestMove = readString(in); result.ponder = readString(in); result.pv = readString(in);
+		result.scoreCp = in.readInt(); result.mate = in.readInt();
+		result.depth = in.readInt(); result.seldepth = in.readInt();
+		result.nodes = in.readLong(); result.nps = in.readLong(); result.time = in.readLong();
+		return result;
+	}
+	
+	public static void writeError(DataOutputStream out, String msg) throws IOException {
+		writeHeader(out, ERROR); out.writeUTF(msg); out.flush();
+	}
+	
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		out.writeBoolean(s != null); if (s != null) out.writeUTF(s);
+	}
+	
+	private static String readString(DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+}
@@ -0,0 +1,152 @@
+package org.chernovia.lib.chess;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Keeps track of every engine process StockPlug spawns.
+ * A watchdog kills engines whose search runs past its wall-clock limit or whose resident
+ * memory exceeds the limit (read from /proc where available), so a hung or bloated engine
+ * ends its search with no move instead of blocking its caller.
+ * Stopped engines get QUIT_GRACE_MS to exit before being destroyed, and every exit is reaped
+ * and counted; exits that nobody asked for count as crashes.
+ * Kills are reported to the KillListener (by default, to java.util.logging).
+ */
+public class EngineSupervisor {
+
+	static long CHECK_MS = 200, QUIT_GRACE_MS = 1000, KILL_GRACE_MS = 500;
+	static long SEARCH_SLACK_MS = 2000, DEPTH_SEARCH_MS = 30000;
+
+	public static final EngineSupervisor DEFAULT = new EngineSupervisor(); //after the settings above
+
+	public interface KillListener {
+		void killed(long pid, String path, String reason);
+	}
+
+	/**
+	 * One supervised process.
+	 */
+	public class Handle {
+		final Process process;
+		final String path;
+		private volatile long deadline = 0; //0 when not searching
+		private volatile boolean stopping = false;
+		private volatile String killReason = null;
+		private volatile long maxMemoryKB = 0; //0 for the supervisor's limit
+
+		Handle(Process p, String s) { process = p; path = s; }
+
+		/**
+		 * Sets this engine's memory limit, in place of the supervisor's.
+		 */
+		public void setMaxMemoryMB(int mb) { maxMemoryKB = mb * 1024L; }
+
+		/**
+		 * Starts the wall-clock limit of a search: its move time plus slack, or DEPTH_SEARCH_MS for depth searches.
+		 */
+		public void beginSearch(SearchRequest request) {
+			deadline = System.currentTimeMillis() + (request.depth > 0 ? DEPTH_SEARCH_MS : request.moveTime + SEARCH_SLACK_MS);
+		}
+
+		public void endSearch() { deadline = 0; }
+
+		public boolean isAlive() { return process.isAlive(); }
+
+		/**
+		 * @return why the supervisor killed this engine, or null
+		 */
+		public String getKillReason() { return killReason; }
+
+		/**
+		 * Lets the engine exit on its own (after "quit"), destroying it if it hasn't within QUIT_GRACE_MS.
+		 */
+		public void retire() {
+			stopping = true;
+			watchdog.schedule(() -> { if (process.isAlive()) destroy(this); }, QUIT_GRACE_MS, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private final Set<Handle> running = ConcurrentHashMap.newKeySet();
+	private final AtomicLong spawned = new AtomicLong(), spawnFailures = new AtomicLong(), exits = new AtomicLong();
+	private final AtomicLong crashes = new AtomicLong(), hungKills = new AtomicLong(), memoryKills = new AtomicLong();
+	private volatile long maxMemoryKB = 0; //for engines without their own limit, 0 for none
+	private final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread t = new Thread(r, "EngineSupervisor"); t.setDaemon(true); return t;
+	});
+	private int checks = 0;
+	private volatile KillListener killListener = (pid, path, reason) ->
+		Logger.getLogger(EngineSupervisor.class.getName()).warning("Killing engine " + pid + " (" + path + "): " + reason);
+
+	public EngineSupervisor() {
+		watchdog.scheduleWithFixedDelay(this::check, CHECK_MS, CHECK_MS, TimeUnit.MILLISECONDS);
+	}
+
+	public void setMaxMemoryMB(int mb) { maxMemoryKB = mb * 1024L; }
+
+	public void setKillListener(KillListener listener) { killListener = listener; }
+
+	public Handle register(Process process, String path) {
+		Handle handle = new Handle(process, path);
+		running.add(handle); spawned.incrementAndGet();
+		process.onExit().thenRun(() -> { //reaped
+			running.remove(handle); exits.incrementAndGet();
+			if (!handle.stopping && handle.killReason == null) crashes.incrementAndGet();
+		});
+		return handle;
+	}
+
+	public void spawnFailed(String path) { spawnFailures.incrementAndGet(); }
+
+	public int getRunning() { return running.size(); }
+	public long getSpawned() { return spawned.get(); }
+	public long getSpawnFailures() { return spawnFailures.get(); }
+	public long getExits() { return exits.get(); }
+	public long getCrashes() { return crashes.get(); }
+	public long getHungKills() { return hungKills.get(); }
+	public long getMemoryKills() { return memoryKills.get(); }
+
+	private void check() {
+		long now = System.currentTimeMillis();
+		boolean checkMemory = (++checks % 5) == 0;
+		for (Handle handle : running) {
+			if (handle.killReason != null || handle.stopping) continue;
+			long deadline = handle.deadline, limit = handle.maxMemoryKB > 0 ? handle.maxMemoryKB : maxMemoryKB;
+			if (deadline > 0 && now > deadline) kill(handle, "hung", hungKills);
+			else if (checkMemory && limit > 0 && residentKB(handle.process) > limit) kill(handle, "memory", memoryKills);
+		}
+	}
+
+	private void kill(Handle handle, String reason, AtomicLong counter) {
+		handle.killReason = reason; counter.incrementAndGet();
+		destroy(handle);
+		try { killListener.killed(handle.process.pid(), handle.path, reason); }
+		catch (RuntimeException e) {} //never stop the watchdog
+	}
+
+	private void destroy(Handle handle) {
+		handle.process.destroy();
+		watchdog.schedule(() -> { if (handle.process.isAlive()) handle.process.destroyForcibly(); },
+			KILL_GRACE_MS, TimeUnit.MILLISECONDS);
+	}
+
+	//resident set size in kB, or 0 if unknown
+	private static long residentKB(Process process) {
+		Path status = Paths.get("/proc", Long.toString(process.pid()), "status");
+		try {
+			for (String line : Files.readAllLines(status)) {
+				if (line.startsWith("VmRSS:")) return Long.parseLong(line.replaceAll("[^0-9]", ""));
+			}
+		}
+		catch (IOException | NumberFormatException e) {}
+		return 0;
+	}
+}
@@ -0,0 +1,96 @@
+package org.chernovia.lib.chess;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Standalone process serving engine searches over EngineRpc, so Stockfish
+ * can run on other hosts than the game server.
+ * Usage: EngineWorker port [engine path|java|fake] [engines]
+ */
+public class EngineWorker extends Thread {
+	
+	private static final Logger logger = Logger.getLogger(EngineWorker.class.getName());
+	private final ServerSocket server;
+	private final Engine engine;
+	private final AtomicInteger busy = new AtomicInteger();
+	private boolean running = false;
+	
+	public static void main(String[] args) throws IOException {
+		int port = Integer.parseInt(args[0]);
+		String path = args.length > 1 ? args[1] : "stockfish/stockfish";
+		int size = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+		Engine engine;
+		if (path.equals("java")) engine = new JavaPlug();
+		else if (path.equals("fake")) engine = new FakeEngine();
+		else engine = new UciPool(path, size);
+		new EngineWorker(port, engine).start();
+	}
+	
+	/**
+	 * @param engine must be safe to search from several connections at once (JavaPlug is used one search at a time)
+	 */
+	public EngineWorker(int port, Engine engine) throws IOException {
+		super("EngineWorker-" + port);
+		server = new ServerSocket(port);
+		this.engine = engine;
+	}
+	
+	public int getPort() { return server.getLocalPort(); }
+	
+	public void run() {
+		if (!engine.start()) { logger.severe("Failed to start engine: " + engine.getName()); return; }
+		logger.info("Engine worker listening on port: " + getPort());
+		running = true;
+		while (running) {
+			try {
+				Socket socket = server.accept();
+				socket.setTcpNoDelay(true);
+				Thread handler = new Thread(() -> serve(socket), "EngineWorker-conn");
+				handler.setDaemon(true); handler.start();
+			}
+			catch (IOException e) { if (running) logger.log(Level.WARNING, "Accept failed", e); }
+		}
+		engine.stop();
+	}
+	
+	public void shutdown() {
+		running = false;
+		try { server.close(); } catch (IOException ignore) {}
+	}
+	
+	private void serve(Socket socket) {
+		try (socket;
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+			while (true) {
+				byte op = EngineRpc.readHeader(in);
+				if (op == EngineRpc.PING) {
+					EngineRpc.writeHeader(out, EngineRpc.PONG); out.writeInt(busy.get()); out.flush();
+				}
+				else if (op == EngineRpc.SEARCH) {
+					SearchRequest request = EngineRpc.readRequest(in);
+					busy.incrementAndGet();
+					try {
+						SearchResult result = (engine instanceof JavaPlug) ? 
+							new JavaPlug().search(request) : engine.search(request);
+						EngineRpc.writeResult(out, result);
+					}
+					finally { busy.decrementAndGet(); }
+				}
+				else { EngineRpc.writeError(out, "Unknown op: " + op); return; }
+			}
+		}
+		catch (EOFException closed) {}
+		catch (IOException e) { logger.warning("Worker connection error: " + e.getMessage()); }
+	}
+}
@@ -0,0 +1,43 @@
+package org.chernovia.lib.chess;
+
+import java.util.List;
+import com.github.bhlangonijr.chesslib.Board;
+import com.github.bhlangonijr.chesslib.move.Move;
+
+/**
+ * Instant, deterministic stand-in for a real engine: the same position
+ * always yields the same legal move. Meant for tests and simulations.
+ */
+public class FakeEngine implements Engine {
+	
+	private final long seed;
+	
+	public FakeEngine() { this(0); }
+	public FakeEngine(long seed) { this.seed = seed; }
+	
+	@Override
+	public String getName() { return "fake"; }
+	
+	@Override
+	public boolean start() { return true; }
+	
+	@Override
+	public void setOptions(int threads, int hashsize) {}
+	
+	@Override
+	public SearchResult search(SearchRequest request) {
+		SearchResult result = new SearchResult(getName());
+		Board board = new Board(); board.loadFromFen(request.fen);
+		List<Move> moves = board.legalMoves();
+		if (!moves.isEmpty()) {
+			long hash = board.getZobristKey() ^ seed ^ request.elo;
+			hash ^= (hash >>> 33); hash *= 0xff51afd7ed558ccdL; hash ^= (hash >>> 33);
+			result.bestMove = moves.get((int)Math.floorMod(hash, (long)moves.size())).toString();
+			result.pv = result.bestMove; result.depth = 1; result.nodes = moves.size();
+		}
+		return result;
+	}
+	
+	@Override
+	public void stop() {}
+}
@@ -0,0 +1,182 @@
+package org.chernovia.lib.chess;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import com.github.bhlangonijr.chesslib.Board;
+import com.github.bhlangonijr.chesslib.Piece;
+import com.github.bhlangonijr.chesslib.PieceType;
+import com.github.bhlangonijr.chesslib.Side;
+import com.github.bhlangonijr.chesslib.Square;
+import com.github.bhlangonijr.chesslib.move.Move;
+
+/**
+ * A small in-process engine: iterative deepening alpha-beta over chesslib's Board
+ * with a material and piece-square evaluation.
+ * Mirrors the StockPlug calls used by the server, but spawns no process and
+ * answers in milliseconds, which is plenty for weak (mole) play or as a
+ * fallback when Stockfish is missing or overloaded.
+ */
+public class JavaPlug implements Engine {
+
+	private static final int MATE = 100000, INF = 1000000;
+	private static final int[] VALUES = { 100, 320, 330, 500, 900, 0 }; //indexed by PieceType ordinal
+	private static final int[] CENTER = { //bonus for central squares, a1..h8
+		0, 0, 0, 0, 0, 0, 0, 0,
+		0, 5, 5, 5, 5, 5, 5, 0,
+		0, 5,10,10,10,10, 5, 0,
+		0, 5,10,20,20,10, 5, 0,
+		0, 5,10,20,20,10, 5, 0,
+		0, 5,10,10,10,10, 5, 0,
+		0, 5, 5, 5, 5, 5, 5, 0,
+		0, 0, 0, 0, 0, 0, 0, 0
+	};
+
+	private final Random random;
+	private int maxDepth = 3, noise = 0;
+	private long deadline;
+	private boolean aborted;
+	private long nodes;
+	private int score, depthReached;
+
+	public JavaPlug() { this(new Random()); }
+	public JavaPlug(Random r) { random = r; }
+
+	/**
+	 * Sets the playing strength: weaker settings search less deeply
+	 * and add more random noise to the evaluation of each root move.
+	 *
+	 * @param elo roughly comparable to Stockfish's UCI_Elo
+	 */
+	public void setElo(int elo) {
+		maxDepth = elo < 1200 ? 1 : elo < 1800 ? 2 : elo < 2200 ? 3 : 4;
+		noise = Math.max(0, (2400 - elo) / 4);
+	}
+
+	public long getNodes() { return nodes; }
+	
+	@Override
+	public String getName() { return "java"; }
+	
+	@Override
+	public boolean start() { return true; }
+	
+	@Override
+	public void setOptions(int threads, int hashsize) {}
+	
+	@Override
+	public void stop() {}
+	
+	@Override
+	public SearchResult search(SearchRequest request) {
+		long start = System.currentTimeMillis();
+		setElo(request.elo > 0 ? request.elo : 3000);
+		if (request.depth > 0) maxDepth = request.depth;
+		SearchResult result = new SearchResult(getName());
+		result.bestMove = getBestMove(request.fen, request.moveTime);
+		result.scoreCp = score; result.depth = depthReached; result.nodes = nodes;
+		if (Math.abs(score) > MATE / 2) result.mate = (score > 0 ? MATE - score + 1 : -MATE - score) / 2; 
+		result.time = System.currentTimeMillis() - start;
+		result.nps = result.time > 0 ? (nodes * 1000) / result.time : nodes;
+		result.pv = result.bestMove;
+		return result;
+	}
+
+	/**
+	 * This function returns the best move for a given position after
+	 * calculating for at most 'waitTime' ms
+	 *
+	 * @param fen
+	 *            Position string
+	 * @param waitTime
+	 *            in milliseconds
+	 * @return Best Move in UCI format, or null if there are no legal moves
+	 */
+	public String getBestMove(String fen, int waitTime) {
+		Board board = new Board(); board.loadFromFen(fen);
+		List<Move> moves = board.legalMoves();
+		if (moves.isEmpty()) return null;
+		deadline = System.currentTimeMillis() + waitTime; nodes = 0; aborted = false;
+		int[] jitter = new int[moves.size()];
+		for (int i = 0; i < jitter.length; i++) jitter[i] = noise > 0 ? random.nextInt(noise + 1) - noise / 2 : 0;
+		Move best = moves.get(random.nextInt(moves.size()));
+		score = 0; depthReached = 0;
+		for (int depth = 1; depth <= maxDepth; depth++) {
+			Move bestAtDepth = null; int alpha = -INF;
+			for (int i = 0; i < moves.size(); i++) {
+				Move move = moves.get(i);
+				board.doMove(move);
+				int score = -search(board, depth - 1, -INF, -alpha, 1) + jitter[i];
+				board.undoMove();
+				if (aborted) break;
+				if (score > alpha) { alpha = score; bestAtDepth = move; }
+			}
+			if (aborted) break;
+			if (bestAtDepth != null) { best = bestAtDepth; score = alpha; depthReached = depth; }
+		}
+		return best.toString();
+	}
+
+	private int search(Board board, int depth, int alpha, int beta, int ply) {
+		if ((++nodes & 1023) == 0 && System.currentTimeMillis() > deadline) aborted = true;
+		if (aborted) return 0;
+		List<Move> moves = board.legalMoves();
+		if (moves.isEmpty()) return board.isKingAttacked() ? -MATE + ply : 0;
+		if (board.isRepetition() || board.isInsufficientMaterial()) return 0;
+		if (depth <= 0) return quiesce(board, alpha, beta, 0);
+		for (Move move : order(board, moves)) {
+			board.doMove(move);
+			int score = -search(board, depth - 1, -beta, -alpha, ply + 1);
+			board.undoMove();
+			if (score >= beta) return beta;
+			if (score > alpha) alpha = score;
+		}
+		return alpha;
+	}
+
+	private int quiesce(Board board, int alpha, int beta, int qdepth) {
+		int standPat = evaluate(board);
+		if (standPat >= beta || qdepth > 4) return standPat;
+		if (standPat > alpha) alpha = standPat;
+		for (Move move : board.legalMoves()) {
+			if (board.getPiece(move.getTo()) == Piece.NONE) continue; //captures only
+			board.doMove(move);
+			int score = -quiesce(board, -beta, -alpha, qdepth + 1);
+			board.undoMove();
+			if (score >= beta) return beta;
+			if (score > alpha) alpha = score;
+		}
+		return alpha;
+	}
+
+	//captures first, most valuable victims first
+	private List<Move> order(Board board, List<Move> moves) {
+		ArrayList<Move> ordered = new ArrayList<Move>(moves);
+		ordered.sort((a, b) -> value(board.getPiece(b.getTo())) - value(board.getPiece(a.getTo())));
+		return ordered;
+	}
+
+	private int value(Piece piece) {
+		return piece == Piece.NONE ? 0 : VALUES[piece.getPieceType().ordinal()];
+	}
+
+	/**
+	 * @return the static evaluation in centipawns from the side to move's point of view
+	 */
+	public int evaluate(Board board) {
+		int score = 0;
+		Side side = board.getSideToMove();
+		for (int i = 0; i < 64; i++) {
+			Piece piece = board.getPiece(Square.squareAt(i));
+			if (piece == Piece.NONE) continue;
+			int v = VALUES[piece.getPieceType().ordinal()];
+			if (piece.getPieceType() == PieceType.KNIGHT || piece.getPieceType() == PieceType.BISHOP) v += CENTER[i];
+			else if (piece.getPieceType() == PieceType.PAWN) {
+				int rank = i / 8;
+				v += CENTER[i] / 2 + 4 * (piece.getPieceSide() == Side.WHITE ? rank - 1 : 6 - rank);
+			}
+			score += piece.getPieceSide() == side ? v : -v;
+		}
+		return score;
+	}
+}
@@ -0,0 +1,43 @@
+package org.chernovia.lib.chess;
+
+/**
+ * Packs UCI moves into 16 bits: from square (6), to square (6) and promotion (4),
+ * with squares numbered a1 = 0 to h8 = 63.
+ */
+public class MoveCodec {
+	private static final String PROMOTIONS = " nbrq";
+	public static final int NONE = 0;
+	
+	/**
+	 * @return the packed move, or NONE if the string is not a UCI move
+	 */
+	public static int encode(String uci) {
+		if (uci == null || uci.length() < 4) return NONE;
+		int from = square(uci, 0), to = square(uci, 2);
+		if (from < 0 || to < 0) return NONE;
+		int promotion = uci.length() > 4 ? PROMOTIONS.indexOf(Character.toLowerCase(uci.charAt(4))) : 0;
+		return from | (to << 6) | (Math.max(promotion, 0) << 12);
+	}
+	
+	public static String decode(int move) {
+		if (move == NONE) return null;
+		StringBuilder uci = new StringBuilder(5);
+		appendSquare(uci, move & 63); appendSquare(uci, (move >>> 6) & 63);
+		int promotion = (move >>> 12) & 15;
+		if (promotion > 0 && promotion < PROMOTIONS.length()) uci.append(PROMOTIONS.charAt(promotion));
+		return uci.toString();
+	}
+	
+	public static int from(int move) { return move & 63; }
+	public static int to(int move) { return (move >>> 6) & 63; }
+	
+	private static int square(String uci, int i) {
+		int file = uci.charAt(i) - 'a', rank = uci.charAt(i + 1) - '1';
+		if (file < 0 || file > 7 || rank < 0 || rank > 7) return -1;
+		return file + (rank * 8);
+	}
+	
+	private static void appendSquare(StringBuilder uci, int square) {
+		uci.append((char)('a' + (square % 8))).append((char)('1' + (square / 8)));
+	}
+}
@@ -0,0 +1,114 @@
+package org.chernovia.lib.chess;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Logger;
+import com.github.bhlangonijr.chesslib.Board;
+
+/**
+ * Read-only, memory mapped table of engine moves for early positions.
+ * The file (written by BookBuilder) holds a header with the strength profiles
+ * (Elo values) it was built for, followed by fixed size entries sorted by
+ * Zobrist key: key (8 bytes), packed move (2), weight (2), profile (2), unused (2).
+ */
+public class OpeningBook {
+	public static final int MAGIC = 0x4D424F4B; //"MBOK"
+	public static final int VERSION = 1, ENTRY_SIZE = 16;
+	
+	private final ByteBuffer entries;
+	private final int count;
+	private final short[] profiles;
+	
+	private OpeningBook(ByteBuffer entryBuffer, int n, short[] profileList) {
+		entries = entryBuffer; count = n; profiles = profileList;
+	}
+	
+	public static OpeningBook empty() { return new OpeningBook(ByteBuffer.allocate(0), 0, new short[0]); }
+	
+	/**
+	 * Maps a book file into memory
+	 * @return the book, or an empty one if the file is missing or unreadable
+	 */
+	public static OpeningBook open(String path) {
+		Path file = Paths.get(path);
+		if (!Files.isReadable(file)) return empty();
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) return empty();
+			int n = buffer.getInt(), profileCount = buffer.getInt();
+			short[] profileList = new short[profileCount];
+			for (int i = 0; i < profileCount; i++) profileList[i] = buffer.getShort();
+			return new OpeningBook(buffer.slice(), n, profileList);
+		}
+		catch (IOException e) {
+			Logger.getLogger(OpeningBook.class.getName()).warning("Can't read book " + path + ": " + e.getMessage());
+			return empty();
+		}
+	}
+	
+	public int size() { return count; }
+	
+	/**
+	 * @return the profile the book was built for that is closest to the given Elo, or -1 if none
+	 */
+	public int getProfile(int elo) {
+		int best = -1;
+		for (short profile : profiles) {
+			if (best < 0 || Math.abs(profile - elo) < Math.abs(best - elo)) best = profile;
+		}
+		return best;
+	}
+	
+	public String getMove(String fen, int elo) { return getMove(fen, elo, ThreadLocalRandom.current().nextDouble()); }
+	
+	/**
+	 * Picks one of the book moves for the position, in proportion to their weights
+	 * @param roll a random number between 0 and 1
+	 * @return a UCI move, or null if the position is not in the book
+	 */
+	public String getMove(String fen, int elo, double roll) {
+		if (count == 0) return null;
+		Board board = new Board(); board.loadFromFen(fen);
+		return getMove(board.getZobristKey(), getProfile(elo), roll);
+	}
+	
+	public String getMove(long key, int profile, double roll) {
+		int first = find(key);
+		if (first < 0) return null;
+		int total = 0, last = first;
+		for (int i = first; i < count && key(i) == key; i++) {
+			if (profile(i) == profile) total += weight(i);
+			last = i;
+		}
+		if (total == 0) return null;
+		int target = (int)(roll * total);
+		for (int i = first; i <= last; i++) {
+			if (profile(i) == profile && (target -= weight(i)) < 0) return MoveCodec.decode(move(i));
+		}
+		return null;
+	}
+	
+	//binary search for the first entry with this key
+	private int find(long key) {
+		int lo = 0, hi = count - 1, found = -1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			long k = key(mid);
+			if (k < key) lo = mid + 1;
+			else { if (k == key) found = mid; hi = mid - 1; }
+		}
+		return found;
+	}
+	
+	private long key(int i) { return entries.getLong(i * ENTRY_SIZE); }
+	private int move(int i) { return entries.getShort(i * ENTRY_SIZE + 8) & 0xFFFF; }
+	private int weight(int i) { return entries.getShort(i * ENTRY_SIZE + 10) & 0xFFFF; }
+	private int profile(int i) { return entries.getShort(i * ENTRY_SIZE + 12); }
+}
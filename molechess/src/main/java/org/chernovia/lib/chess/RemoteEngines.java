@@ -0,0 +1,158 @@
+package org.chernovia.lib.chess;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A set of remote EngineWorkers with health checks and load balancing.
+ * Each worker is pinged periodically; searches go to the healthy worker with
+ * the fewest searches in flight from this server, and fail over to the next
+ * one if a worker drops the connection.
+ */
+public class RemoteEngines {
+	static final int CONNECT_TIMEOUT = 1000, PING_FREQ = 5000, SEARCH_MARGIN = 5000;
+	
+	class Node {
+		final InetSocketAddress address;
+		volatile boolean healthy = true;
+		volatile int remoteLoad = 0;
+		final AtomicInteger inFlight = new AtomicInteger();
+		Node(InetSocketAddress a) { address = a; }
+		public String toString() { return address + (healthy ? " (up, load " + remoteLoad + ")" : " (down)"); }
+	}
+	
+	private final ArrayList<Node> nodes = new ArrayList<Node>();
+	private Thread checker;
+	
+	/**
+	 * @param workers comma separated list of host:port
+	 */
+	public RemoteEngines(String workers) {
+		for (String worker : workers.split(",")) {
+			String[] hostPort = worker.trim().split(":");
+			if (hostPort.length == 2) {
+				nodes.add(new Node(new InetSocketAddress(hostPort[0], Integer.parseInt(hostPort[1]))));
+			}
+		}
+	}
+	
+	public int size() { return nodes.size(); }
+	
+	public List<String> getStatus() {
+		ArrayList<String> status = new ArrayList<String>();
+		for (Node node : nodes) status.add(node.toString());
+		return status;
+	}
+	
+	public synchronized void startHealthChecks() {
+		if (checker != null) return;
+		checker = new Thread(() -> {
+			while (true) {
+				for (Node node : nodes) ping(node);
+				try { Thread.sleep(PING_FREQ); } catch (InterruptedException e) { return; }
+			}
+		}, "RemoteEngines-health");
+		checker.setDaemon(true); checker.start();
+	}
+	
+	public synchronized void stopHealthChecks() {
+		if (checker != null) { checker.interrupt(); checker = null; }
+	}
+	
+	/**
+	 * @return a new client engine, normally one per scheduler worker
+	 */
+	public Engine newEngine() { return new RemoteEngine(); }
+	
+	private void ping(Node node) {
+		try (Socket socket = connect(node.address, CONNECT_TIMEOUT)) {
+			DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+			DataInputStream in = new DataInputStream(socket.getInputStream());
+			EngineRpc.writeHeader(out, EngineRpc.PING); out.flush();
+			if (EngineRpc.readHeader(in) != EngineRpc.PONG) throw new IOException("Bad ping reply");
+			node.remoteLoad = in.readInt(); node.healthy = true;
+		}
+		catch (IOException e) { node.healthy = false; }
+	}
+	
+	private Node pick(Node exclude) {
+		Node best = null;
+		for (Node node : nodes) {
+			if (node.healthy && node != exclude) {
+				if (best == null || load(node) < load(best)) best = node;
+			}
+		}
+		return best;
+	}
+	
+	private int load(Node node) { return node.inFlight.get() + node.remoteLoad; }
+	
+	private static Socket connect(InetSocketAddress address, int timeout) throws IOException {
+		Socket socket = new Socket();
+		socket.connect(address, timeout);
+		socket.setTcpNoDelay(true); socket.setSoTimeout(timeout);
+		return socket;
+	}
+	
+	class RemoteEngine implements Engine {
+		private Node node;
+		private Socket socket;
+		private DataInputStream in;
+		private DataOutputStream out;
+		
+		@Override
+		public String getName() { return "remote"; }
+		
+		@Override
+		public boolean start() { return size() > 0; }
+		
+		@Override
+		public void setOptions(int threads, int hashsize) {} //configured on the worker
+		
+		@Override
+		public SearchResult search(SearchRequest request) {
+			Node failed = null;
+			for (int attempt = 0; attempt < nodes.size(); attempt++) {
+				try {
+					if (socket == null) open(pick(failed));
+					node.inFlight.incrementAndGet();
+					try {
+						socket.setSoTimeout(request.moveTime + SEARCH_MARGIN);
+						EngineRpc.writeRequest(out, request);
+						byte op = EngineRpc.readHeader(in);
+						if (op == EngineRpc.RESULT) return EngineRpc.readResult(in);
+						else throw new IOException(op == EngineRpc.ERROR ? in.readUTF() : "Bad reply: " + op);
+					}
+					finally { node.inFlight.decrementAndGet(); }
+				}
+				catch (IOException e) {
+					if (node != null) { node.healthy = false; failed = node; }
+					stop();
+				}
+			}
+			return new SearchResult(getName()); //no move: the caller falls back
+		}
+		
+		private void open(Node target) throws IOException {
+			if (target == null) throw new IOException("No healthy engine workers");
+			node = target;
+			socket = connect(target.address, CONNECT_TIMEOUT);
+			in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		}
+		
+		@Override
+		public void stop() {
+			if (socket != null) try { socket.close(); } catch (IOException ignore) {}
+			socket = null;
+		}
+	}
+}
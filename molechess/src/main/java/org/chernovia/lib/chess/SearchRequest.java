@@ -0,0 +1,18 @@
+package org.chernovia.lib.chess;
+
+/**
+ * What to search and for how long. An elo of zero means full strength,
+ * a positive depth limits the search by depth instead of time.
+ */
+public class SearchRequest {
+	public final String fen;
+	public final int moveTime, elo, depth;
+	
+	public SearchRequest(String fen, int moveTime) { this(fen, moveTime, 0, 0); }
+	public SearchRequest(String fen, int moveTime, int elo) { this(fen, moveTime, elo, 0); }
+	public SearchRequest(String fen, int moveTime, int elo, int depth) {
+		this.fen = fen; this.moveTime = moveTime; this.elo = elo; this.depth = depth;
+	}
+	
+	public String toString() { return fen + " (" + moveTime + "ms, elo " + elo + ")"; }
+}
@@ -0,0 +1,32 @@
+package org.chernovia.lib.chess;
+
+/**
+ * Outcome of a search, as reported by the engine's last info line and its bestmove.
+ * Scores are from the point of view of the side to move; mate is the number of
+ * moves to mate (negative if being mated) or zero if no mate was found.
+ */
+public class SearchResult {
+	public final String engine;
+	public String bestMove, ponder, pv;
+	public int scoreCp, mate, depth, seldepth;
+	public long nodes, nps, time;
+	public long parseNanos; //time spent parsing engine output
+	
+	public SearchResult(String engineName) { engine = engineName; }
+	
+	public boolean isMate() { return mate != 0; }
+	
+	/**
+	 * @return the score in centipawns, with mates mapped beyond any material score
+	 */
+	public int getScore() {
+		if (mate > 0) return 100000 - mate;
+		else if (mate < 0) return -100000 - mate;
+		else return scoreCp;
+	}
+	
+	public String toString() {
+		return engine + ": " + bestMove + " (" + (isMate() ? "mate " + mate : "cp " + scoreCp) + 
+				", depth " + depth + ", nodes " + nodes + ", nps " + nps + ")";
+	}
+}
@@ -5,6 +5,7 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
+import java.util.logging.Logger;
 
 /**
  * A simple and efficient client to run Stockfish from Java
@@ -12,12 +13,26 @@ import java.io.OutputStreamWriter;
  * @author Rahul A R (with recent additions by John Chernoff)
  * 
  */
-public class StockPlug {
+public class StockPlug implements Engine {
 
 	private Process engineProcess;
+	private EngineSupervisor.Handle handle;
+	private final EngineSupervisor supervisor = EngineSupervisor.DEFAULT;
 	private BufferedReader processReader;
 	private OutputStreamWriter processWriter;
 	private String id = "?";
+	private String path;
+	private int elo = 0;
+	private int maxMemoryMB = 0;
+	
+	public StockPlug() {}
+	public StockPlug(String enginePath) { path = enginePath; }
+	
+	@Override
+	public String getName() { return "uci"; }
+	
+	@Override
+	public boolean start() { return startEngine(path); }
 	
 	/**
 	 * Starts Stockfish engine as a process and initializes it
@@ -26,6 +41,7 @@ public class StockPlug {
 	 * @return True on success. False otherwise
 	 */
 	public boolean startEngine(String path) {
+		EngineEvents.Spawn event = new EngineEvents.Spawn(); event.begin(); event.path = path;
 		try {
 			engineProcess = Runtime.getRuntime().exec(path);
 			processReader = new BufferedReader(new InputStreamReader(
@@ -34,14 +50,21 @@ public class StockPlug {
 					engineProcess.getOutputStream());
 		} catch (Exception e) {
 			e.printStackTrace();
+			supervisor.spawnFailed(path);
+			event.commit();
 			return false;
 		}
 		//System.out.println("New Process: " + engineProcess.pid());
+		handle = supervisor.register(engineProcess, path);
+		if (maxMemoryMB > 0) handle.setMaxMemoryMB(maxMemoryMB);
 		id = engineProcess.pid() + "";
+		event.pid = engineProcess.pid(); event.started = true; event.commit();
 		return true;
 	}
 	
 	public String getID() { return id; }
+	
+	public boolean isAlive() { return handle != null && handle.isAlive(); }
 
 	/**
 	 * Takes in any valid UCI command and executes it
@@ -78,6 +101,7 @@ public class StockPlug {
 			while (true) {
 				String text = processReader.readLine();
 				//System.out.println(id + ": " + text);
+				if (text == null) break; //engine died
 				buffer.append(text + "\n");
 				if (text.startsWith(keyString)) break;
 				
@@ -99,30 +123,79 @@ public class StockPlug {
 	 * @return Best Move in PGN format
 	 */
 	public String getBestMove(String fen, int waitTime) {
-		sendCommand("position fen " + fen); 
-		sendCommand("go movetime " + waitTime);
-		String output = getOutput("bestmove",waitTime + 20); 
-		return output.split("bestmove ")[1].split(" ")[0];
+		return search(new SearchRequest(fen, waitTime, elo)).bestMove;
+	}
+	
+	/**
+	 * Runs a search, parsing the engine's info lines as they arrive
+	 * 
+	 * @param request
+	 *            Position, time (or depth) and strength
+	 * @return the result, with a null bestMove if the engine died or was killed by the supervisor
+	 */
+	@Override
+	public SearchResult search(SearchRequest request) {
+		SearchResult result = new SearchResult(getName());
+		if (!isAlive()) return result;
+		if (request.elo != elo) setElo(request.elo);
+		handle.beginSearch(request);
+		sendCommand("position fen " + request.fen);
+		sendCommand(request.depth > 0 ? "go depth " + request.depth : "go movetime " + request.moveTime);
+		try {
+			String line;
+			while ((line = processReader.readLine()) != null) {
+				if (UciParser.parseLine(line, result)) break;
+			}
+		} catch (IOException e) {
+			if (handle.getKillReason() == null) Logger.getLogger(StockPlug.class.getName()).warning("Engine read error: " + e.getMessage());
+		}
+		finally { handle.endSearch(); }
+		return result;
 	}
 	
 	public void setOptions(int threads, int hashsize, int elo) {
+		setOptions(threads, hashsize);
+		setElo(elo);
+		getOutput(100);
+	}
+	
+	@Override
+	public void setMaxMemoryMB(int mb) {
+		maxMemoryMB = mb;
+		if (handle != null) handle.setMaxMemoryMB(mb);
+	}
+	
+	@Override
+	public void setOptions(int threads, int hashsize) {
 		sendCommand("setoption name Threads value " + threads); 
 		sendCommand("setoption name Hash value " + hashsize); 
-		sendCommand("setoption name UCI_LimitStrength value true");
-		sendCommand("setoption name UCI_Elo value " + elo);
-		getOutput(100);
 	}
+	
+	/**
+	 * Limits the engine's strength, or restores full strength if elo is zero
+	 */
+	public void setElo(int elo) {
+		this.elo = elo;
+		sendCommand("setoption name UCI_LimitStrength value " + (elo > 0));
+		if (elo > 0) sendCommand("setoption name UCI_Elo value " + elo);
+	}
+	
+	@Override
+	public void stop() { stopEngine(); }
 
 	/**
-	 * Stops Stockfish and cleans up before closing it
+	 * Stops Stockfish and cleans up before closing it.
+	 * The supervisor destroys the process if it hasn't quit within its grace period.
 	 */
 	public void stopEngine() {
+		if (handle == null) return;
 		try {
-			sendCommand("quit");
+			if (handle.isAlive()) sendCommand("quit");
 			processReader.close();
 			processWriter.close();
 		} catch (IOException e) {
 		}
+		handle.retire();
 	}
 
 	/**
@@ -135,7 +208,8 @@ public class StockPlug {
 	public String getLegalMoves(String fen) {
 		sendCommand("position fen " + fen);
 		sendCommand("d");
-		return getOutput(0).split("Legal moves: ")[1];
+		String[] output = getOutput(0).split("Legal moves: ");
+		return output.length > 1 ? output[1] : "";
 	}
 
 	/**
@@ -162,28 +236,8 @@ public class StockPlug {
 	 * @return evalScore
 	 */
 	public float getEvalScore(String fen, int waitTime) {
-		sendCommand("position fen " + fen);
-		sendCommand("go movetime " + waitTime);
-
-		String[] dump = getOutput(waitTime + 20).split("\n");
-		String eval_str = "";
-		for (int i = dump.length - 1; i >= 0; i--) {
-			//System.out.println(i + " -> " + dump[i]);
-			if (dump[i].startsWith("info depth ")) {
-				if (dump[i].contains("mate")) return 999;
-				else try {
-					return Float.parseFloat(dump[i].split("score cp ")[1].split(" nodes")[0])/100;
-				} catch(Exception e) { 
-					try {
-						return Float.parseFloat(dump[i].split("score cp ")[1].split(" upperbound nodes")[0])/100;
-					}
-					catch(Exception oops) {
-						System.out.println("Eval error: " + oops.getMessage() + " -> " + dump[i]);
-						System.out.println(eval_str);
-					}
-				}
-			}
-		}
-		return 0;
+		SearchResult result = search(new SearchRequest(fen, waitTime, elo));
+		if (result.isMate()) return result.mate > 0 ? 999 : -999;
+		else return result.scoreCp / 100f;
 	}
 }
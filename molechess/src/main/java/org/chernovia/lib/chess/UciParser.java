@@ -0,0 +1,79 @@
+package org.chernovia.lib.chess;
+
+/**
+ * Parses UCI engine output in place: numbers are read straight out of the line
+ * without splitting it or allocating substrings (only the pv and moves are copied).
+ */
+public class UciParser {
+	
+	/**
+	 * Reads one line of engine output into the result.
+	 * @return true if this was the bestmove line ending the search
+	 */
+	public static boolean parseLine(String line, SearchResult result) {
+		long start = System.nanoTime();
+		boolean done = false;
+		if (line.startsWith("info ")) parseInfo(line, result);
+		else if (line.startsWith("bestmove")) { parseBestMove(line, result); done = true; }
+		result.parseNanos += System.nanoTime() - start;
+		return done;
+	}
+	
+	public static void parseInfo(String line, SearchResult result) {
+		int i = 5, n = line.length();
+		boolean scored = false;
+		while (i < n) {
+			int end = tokenEnd(line, i);
+			if (token(line, i, end, "depth")) { i = skip(line, end); result.depth = (int)number(line, i); }
+			else if (token(line, i, end, "seldepth")) { i = skip(line, end); result.seldepth = (int)number(line, i); }
+			else if (token(line, i, end, "nodes")) { i = skip(line, end); result.nodes = number(line, i); }
+			else if (token(line, i, end, "nps")) { i = skip(line, end); result.nps = number(line, i); }
+			else if (token(line, i, end, "time")) { i = skip(line, end); result.time = number(line, i); }
+			else if (token(line, i, end, "cp") && !scored) {
+				i = skip(line, end); result.scoreCp = (int)number(line, i); result.mate = 0; scored = true;
+			}
+			else if (token(line, i, end, "mate") && !scored) {
+				i = skip(line, end); result.mate = (int)number(line, i); scored = true;
+			}
+			else if (token(line, i, end, "pv")) { result.pv = line.substring(skip(line, end)); return; }
+			else if (token(line, i, end, "string")) return; //free text
+			else i = end;
+			i = skip(line, tokenEnd(line, i));
+		}
+	}
+	
+	public static void parseBestMove(String line, SearchResult result) {
+		int i = skip(line, tokenEnd(line, 0)), end = tokenEnd(line, i);
+		if (end > i && !token(line, i, end, "(none)")) result.bestMove = line.substring(i, end);
+		i = skip(line, end); end = tokenEnd(line, i);
+		if (token(line, i, end, "ponder")) {
+			i = skip(line, end); end = tokenEnd(line, i);
+			if (end > i) result.ponder = line.substring(i, end);
+		}
+	}
+	
+	private static boolean token(String line, int start, int end, String word) {
+		return end - start == word.length() && line.regionMatches(start, word, 0, word.length());
+	}
+	
+	private static int tokenEnd(String line, int i) {
+		while (i < line.length() && line.charAt(i) != ' ') i++;
+		return i;
+	}
+	
+	private static int skip(String line, int i) {
+		while (i < line.length() && line.charAt(i) == ' ') i++;
+		return i;
+	}
+	
+	private static long number(String line, int i) {
+		long value = 0; boolean negative = false;
+		if (i < line.length() && line.charAt(i) == '-') { negative = true; i++; }
+		for (; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (c < '0' || c > '9') break;
+			value = value * 10 + (c - '0');
+		}
+		return negative ? -value : value;
+	}
+}
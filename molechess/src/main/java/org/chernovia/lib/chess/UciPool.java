@@ -0,0 +1,71 @@
+package org.chernovia.lib.chess;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A fixed set of running UCI engines shared by any number of callers:
+ * each search borrows an idle engine, and an engine that dies mid-search
+ * is replaced by a fresh one.
+ */
+public class UciPool implements Engine {
+	
+	static long WAIT_MS = 10000; //for an idle engine, on top of the search time
+	private final String path;
+	private final BlockingQueue<StockPlug> idle;
+	private final int size;
+	private int threads = 1, hashsize = 16, maxMemoryMB = 0;
+	private volatile boolean stopped = false;
+	
+	public UciPool(String enginePath, int poolSize) {
+		path = enginePath; size = poolSize; idle = new ArrayBlockingQueue<StockPlug>(poolSize);
+	}
+	
+	@Override
+	public String getName() { return "uci_pool"; }
+	
+	@Override
+	public boolean start() {
+		for (int i = 0; i < size; i++) {
+			StockPlug engine = spawn(); 
+			if (engine == null) return false;
+			idle.add(engine);
+		}
+		return true;
+	}
+	
+	@Override
+	public void setOptions(int threads, int hashsize) { this.threads = threads; this.hashsize = hashsize; }
+	
+	@Override
+	public void setMaxMemoryMB(int mb) { maxMemoryMB = mb; }
+	
+	@Override
+	public SearchResult search(SearchRequest request) {
+		StockPlug engine;
+		if (stopped) return new SearchResult(getName());
+		try { engine = idle.poll(request.moveTime + WAIT_MS, TimeUnit.MILLISECONDS); }
+		catch (InterruptedException e) { return new SearchResult(getName()); }
+		if (engine == null) return new SearchResult(getName()); //all busy, or all dead and not respawned
+		SearchResult result = engine.search(request);
+		if (result.bestMove == null) { engine.stopEngine(); engine = spawn(); }
+		if (engine != null) { if (stopped) engine.stopEngine(); else idle.add(engine); }
+		return result;
+	}
+	
+	@Override
+	public void stop() {
+		stopped = true;
+		StockPlug engine;
+		while ((engine = idle.poll()) != null) engine.stopEngine();
+	}
+	
+	private StockPlug spawn() {
+		StockPlug engine = new StockPlug(path);
+		engine.setMaxMemoryMB(maxMemoryMB);
+		if (!engine.start()) return null;
+		engine.setOptions(threads, hashsize);
+		return engine;
+	}
+}
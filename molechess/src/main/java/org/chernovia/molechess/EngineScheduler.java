@@ -0,0 +1,187 @@
+package org.chernovia.molechess;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+import org.chernovia.lib.chess.Engine;
+import org.chernovia.lib.chess.EngineEvents;
+import org.chernovia.lib.chess.JavaPlug;
+import org.chernovia.lib.chess.SearchRequest;
+import org.chernovia.lib.chess.SearchResult;
+import org.chernovia.lib.chess.StockPlug;
+
+/**
+ * Central queue for all engine searches.
+ * A fixed budget of engine threads and hash is shared by a pool of long running
+ * StockThread workers. Jobs are served by priority (live moves before pondering
+ * before analysis) and round robin across the games (owners) within a priority,
+ * so one busy game cannot monopolize the engines. Live searches are shortened
+ * when more of them are waiting than there are workers.
+ * Weak (mole) play, and any live search while Stockfish is missing or badly
+ * backlogged, is handled in-process by JavaPlug instead.
+ * Workers get their engines from a replaceable factory (Stockfish by default).
+ */
+public class EngineScheduler {
+	public enum PRIORITY { LIVE, PONDER, ANALYSIS };
+	static final int MIN_MOVE_TIME = 100;
+	static volatile int JAVA_MAX_ELO = 1600, JAVA_MAX_TIME = 250, OVERLOAD = 4; //OVERLOAD: waiting live jobs per thread
+	static int ENGINE_OVERHEAD_MB = 128; //allowed on top of twice the hash before the supervisor kills an engine
+	static long STOCKFISH_CHECK_MS = 10000; //how long a check for the Stockfish binary holds
+	private static final ExecutorService javaPool = Executors.newFixedThreadPool(2, r -> {
+		Thread t = new Thread(r, "JavaPlug"); t.setDaemon(true); return t;
+	});
+	
+	class Job {
+		final StockListener listener;
+		final Object owner;
+		final String fen;
+		final int moveTime, elo;
+		final PRIORITY priority;
+		final long queued = System.currentTimeMillis();
+		Job(StockListener l, Object o, String f, int t, int e, PRIORITY p) {
+			listener = l; owner = o; fen = f; moveTime = t; elo = e; priority = p;
+		}
+	}
+	
+	private final EnumMap<PRIORITY, LinkedHashMap<Object, ArrayDeque<Job>>> queues = new EnumMap<>(PRIORITY.class);
+	private final ArrayList<StockThread> workers = new ArrayList<StockThread>();
+	private int threads, hash;
+	private Supplier<Engine> factory = () -> new StockPlug(MoleServ.STOCK_PATH);
+	private boolean external = true;
+	private int queued = 0, busy = 0, workerCount = 0;
+	private boolean stockfishFound = false;
+	private long stockfishChecked = 0;
+	
+	public EngineScheduler(int threadBudget, int hashBudget) {
+		for (PRIORITY p : PRIORITY.values()) queues.put(p, new LinkedHashMap<Object, ArrayDeque<Job>>());
+		setBudget(threadBudget, hashBudget);
+	}
+	
+	/**
+	 * Sets the total number of engine threads and megabytes of hash.
+	 * Surplus workers retire after their current search; new ones start on demand.
+	 */
+	public synchronized void setBudget(int threadBudget, int hashBudget) {
+		threads = Math.max(1, threadBudget); hash = Math.max(threads, hashBudget);
+		notifyAll();
+	}
+	
+	/**
+	 * Sets the engines used by new workers.
+	 * @param isExternal whether the engine needs the Stockfish binary (otherwise its absence is irrelevant)
+	 */
+	public synchronized void setEngineFactory(Supplier<Engine> engineFactory, boolean isExternal) {
+		factory = engineFactory; external = isExternal;
+	}
+	
+	synchronized Engine newEngine() { return factory.get(); }
+	
+	public synchronized int getThreads() { return threads; }
+	public synchronized int getHashPerEngine() { return hash / threads; }
+	//memory limit for this scheduler's engines (set on each engine, not supervisor wide)
+	public synchronized int getMaxEngineMB() { return getHashPerEngine() * 2 + ENGINE_OVERHEAD_MB; }
+	public synchronized int getQueued() { return queued; }
+	public synchronized int getLoad() { return queued + busy; }
+	
+	public synchronized void submit(StockListener listener, Object owner, String fen, int moveTime, int elo, PRIORITY priority) {
+		if ((elo > 0 && elo <= JAVA_MAX_ELO) || (external && !stockfishAvailable()) || 
+			(priority == PRIORITY.LIVE && queued >= threads * OVERLOAD)) {
+			Job job = new Job(listener, owner, fen, moveTime, elo, priority);
+			javaPool.execute(() -> deliver(job, searchInProcessSafely(job)));
+			return;
+		}
+		queues.get(priority).computeIfAbsent(owner, k -> new ArrayDeque<Job>())
+			.add(new Job(listener, owner, fen, moveTime, elo, priority));
+		queued++;
+		MoleMetrics.record(MoleMetrics.ENGINE_QUEUE_DEPTH, queued);
+		if (workers.size() < threads && busy + queued > workers.size()) {
+			StockThread worker = new StockThread(this, workerCount++);
+			workers.add(worker); worker.start();
+		}
+		notify();
+	}
+	
+	/**
+	 * Blocks until a job is available.
+	 * @return the next job, or null if the worker should retire
+	 */
+	synchronized Job take(StockThread worker) {
+		try {
+			while (queued == 0 && workers.size() <= threads) wait();
+		}
+		catch (InterruptedException e) { workers.remove(worker); return null; }
+		if (workers.size() > threads) { workers.remove(worker); return null; }
+		for (LinkedHashMap<Object, ArrayDeque<Job>> queue : queues.values()) {
+			Iterator<Map.Entry<Object, ArrayDeque<Job>>> i = queue.entrySet().iterator();
+			if (i.hasNext()) {
+				Map.Entry<Object, ArrayDeque<Job>> entry = i.next(); i.remove();
+				Job job = entry.getValue().poll();
+				if (!entry.getValue().isEmpty()) queue.put(entry.getKey(), entry.getValue()); //to the back of the line
+				queued--; busy++;
+				MoleMetrics.record(MoleMetrics.ENGINE_WAIT_MS, System.currentTimeMillis() - job.queued);
+				return job;
+			}
+		}
+		return null; //shouldn't occur
+	}
+	
+	synchronized void done(Job job) {
+		busy--; notifyAll();
+	}
+	
+	/**
+	 * Searches with the in-process engine, used directly for weak play and as
+	 * the fallback whenever a Stockfish search fails.
+	 */
+	static SearchResult searchInProcess(Job job) {
+		SearchRequest request = new SearchRequest(job.fen, Math.min(job.moveTime, JAVA_MAX_TIME), job.elo);
+		EngineEvents.Search event = new EngineEvents.Search(); event.begin();
+		SearchResult result = new JavaPlug().search(request);
+		EngineEvents.commit(event, request, result);
+		record(result);
+		MoleServ.moveCache.put(job.fen, job.elo, result.bestMove);
+		return result;
+	}
+	
+	//never throws, so the listener always gets a result (without a move if the search failed)
+	static SearchResult searchInProcessSafely(Job job) {
+		try { return searchInProcess(job); }
+		catch (RuntimeException e) { MoleLog.severe("In-process search failed: {}", e); return new SearchResult("none"); }
+	}
+	
+	static void deliver(Job job, SearchResult result) {
+		try { job.listener.newSearchResult(result); }
+		catch (RuntimeException e) { MoleLog.warn("Search listener failed: {}", e); }
+	}
+	
+	//per engine search counts and timings, plus the cost of parsing engine output
+	static void record(SearchResult result) {
+		MoleMetrics.record(MoleMetrics.ENGINE_SEARCH_MS + "." + result.engine, result.time);
+		if (result.parseNanos > 0) MoleMetrics.record(MoleMetrics.UCI_PARSE_NS, result.parseNanos);
+	}
+	
+	//checks the file system at most once per STOCKFISH_CHECK_MS (called under the monitor)
+	private boolean stockfishAvailable() {
+		long now = System.currentTimeMillis();
+		if (now - stockfishChecked > STOCKFISH_CHECK_MS) {
+			stockfishFound = new java.io.File(MoleServ.STOCK_PATH).canExecute(); stockfishChecked = now;
+		}
+		return stockfishFound;
+	}
+	
+	/**
+	 * @return the job's move time, scaled down if more live searches are waiting than can run at once
+	 */
+	synchronized int adaptMoveTime(Job job) {
+		if (job.priority != PRIORITY.LIVE) return job.moveTime;
+		int demand = busy + queues.get(PRIORITY.LIVE).values().stream().mapToInt(ArrayDeque::size).sum();
+		if (demand <= threads) return job.moveTime;
+		return Math.max(MIN_MOVE_TIME, (job.moveTime * threads) / demand);
+	}
+}
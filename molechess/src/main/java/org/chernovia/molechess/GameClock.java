@@ -0,0 +1,38 @@
+package org.chernovia.molechess;
+
+/**
+ * Time source for a game's phases.
+ * The real clock sleeps; a virtual one (see MoleSim) only advances its counter,
+ * so a simulated game runs as fast as its moves can be chosen.
+ */
+public interface GameClock {
+
+	long now();
+
+	/**
+	 * Waits out a phase.
+	 * @return false if woken early (the game thread was interrupted)
+	 */
+	boolean sleep(long millis);
+
+	GameClock REAL = new GameClock() {
+		@Override
+		public long now() { return System.currentTimeMillis(); }
+		@Override
+		public boolean sleep(long millis) {
+			try { Thread.sleep(millis); return true; }
+			catch (InterruptedException e) { return false; }
+		}
+	};
+
+	class Virtual implements GameClock {
+		private long time = 0;
+		@Override
+		public long now() { return time; }
+		@Override
+		public boolean sleep(long millis) {
+			if (Thread.interrupted()) return false;
+			time += millis; return true;
+		}
+	}
+}
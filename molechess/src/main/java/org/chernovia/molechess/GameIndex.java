@@ -0,0 +1,142 @@
+package org.chernovia.molechess;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Secondary indexes over the game registry for games_query: all games, games by phase,
+ * by creator and with open seats per color, each kept sorted by most recent activity.
+ * A query walks the most selective index from its cursor and stops once a page is full,
+ * so its cost depends on the page size rather than the number of games.
+ * Games are added when created and re-index themselves through MoleListener.changed;
+ * an update for a game that is no longer indexed (it finished meanwhile) is ignored.
+ */
+public class GameIndex {
+
+	static int DEFAULT_LIMIT = 20, MAX_LIMIT = 100;
+
+	//a game's indexed fields as of its last update; index entries are never mutated
+	static class Entry {
+		final MoleGame game;
+		final String title, creator;
+		final MoleGame.GAME_PHASE phase;
+		final long lastActivity;
+		final int observers;
+		final int[] open = new int[2];
+		Entry(MoleGame g) {
+			game = g; title = g.getTitle(); creator = g.getCreator().name; phase = g.getPhase();
+			lastActivity = g.getLastActivity(); observers = g.getObserverCount();
+			for (int c = MoleGame.COLOR_BLACK; c <= MoleGame.COLOR_WHITE; c++) open[c] = g.getOpenSeats(c);
+		}
+		Entry(long activity, String t) { //cursor position
+			game = null; title = t; creator = null; phase = null; lastActivity = activity; observers = 0;
+		}
+	}
+
+	private static final Comparator<Entry> RECENT_FIRST =
+		Comparator.comparingLong((Entry e) -> -e.lastActivity).thenComparing(e -> e.title);
+
+	private final ConcurrentHashMap<String, Entry> current = new ConcurrentHashMap<>();
+	private final NavigableSet<Entry> all = new ConcurrentSkipListSet<>(RECENT_FIRST);
+	private final EnumMap<MoleGame.GAME_PHASE, NavigableSet<Entry>> byPhase = new EnumMap<>(MoleGame.GAME_PHASE.class);
+	private final ConcurrentHashMap<String, NavigableSet<Entry>> byCreator = new ConcurrentHashMap<>();
+	@SuppressWarnings("unchecked")
+	private final NavigableSet<Entry>[] withOpenSeats = new NavigableSet[] {
+		new ConcurrentSkipListSet<>(RECENT_FIRST), new ConcurrentSkipListSet<>(RECENT_FIRST)
+	};
+
+	public GameIndex() {
+		for (MoleGame.GAME_PHASE phase : MoleGame.GAME_PHASE.values()) byPhase.put(phase, new ConcurrentSkipListSet<>(RECENT_FIRST));
+	}
+
+	public synchronized void add(MoleGame game) {
+		unindex(current.get(game.getTitle()));
+		index(new Entry(game));
+	}
+
+	public synchronized void update(MoleGame game) {
+		Entry old = current.get(game.getTitle());
+		if (old == null || old.game != game) return; //removed, or replaced by a newer game
+		unindex(old);
+		index(new Entry(game));
+	}
+
+	private void index(Entry entry) {
+		current.put(entry.title, entry);
+		all.add(entry); byPhase.get(entry.phase).add(entry);
+		byCreator.computeIfAbsent(entry.creator, c -> new ConcurrentSkipListSet<>(RECENT_FIRST)).add(entry);
+		for (int c = MoleGame.COLOR_BLACK; c <= MoleGame.COLOR_WHITE; c++) if (entry.open[c] > 0) withOpenSeats[c].add(entry);
+	}
+
+	public boolean contains(MoleGame game) {
+		Entry entry = current.get(game.getTitle());
+		return entry != null && entry.game == game;
+	}
+
+	public synchronized void remove(MoleGame game) {
+		Entry entry = current.get(game.getTitle());
+		if (entry != null && entry.game == game) { current.remove(entry.title); unindex(entry); }
+	}
+
+	private void unindex(Entry entry) {
+		if (entry == null) return;
+		all.remove(entry); byPhase.get(entry.phase).remove(entry);
+		NavigableSet<Entry> created = byCreator.get(entry.creator);
+		if (created != null) { created.remove(entry); if (created.isEmpty()) byCreator.remove(entry.creator); }
+		for (int c = MoleGame.COLOR_BLACK; c <= MoleGame.COLOR_WHITE; c++) withOpenSeats[c].remove(entry);
+	}
+
+	/**
+	 * Runs a games_query: {phase, color (open seats for), creator, min_observers, limit, cursor}, all optional.
+	 * @return {"games": [...], "next": cursor or null}; pass "next" back as "cursor" for the following page
+	 */
+	public MoleResult query(JsonNode params, ObjectNode response) {
+		MoleGame.GAME_PHASE phase = null;
+		if (params.hasNonNull("phase")) {
+			try { phase = MoleGame.GAME_PHASE.valueOf(params.get("phase").asText().toUpperCase()); }
+			catch (IllegalArgumentException oops) { return new MoleResult(false, "Bad phase: " + params.get("phase").asText()); }
+		}
+		int color = params.path("color").asInt(MoleGame.COLOR_UNKNOWN);
+		if (color != MoleGame.COLOR_UNKNOWN && color != MoleGame.COLOR_BLACK && color != MoleGame.COLOR_WHITE) {
+			return new MoleResult(false, "Bad color: " + color);
+		}
+		String creator = params.hasNonNull("creator") ? params.get("creator").asText() : null;
+		int minObservers = params.path("min_observers").asInt(0);
+		int limit = Math.max(1, Math.min(MAX_LIMIT, params.path("limit").asInt(DEFAULT_LIMIT)));
+		Entry from = params.hasNonNull("cursor") ? parseCursor(params.get("cursor").asText()) : null;
+		if (params.hasNonNull("cursor") && from == null) return new MoleResult(false, "Bad cursor");
+
+		NavigableSet<Entry> index; //the most selective one that applies
+		if (creator != null) index = byCreator.getOrDefault(creator, Collections.emptyNavigableSet());
+		else if (color != MoleGame.COLOR_UNKNOWN) index = withOpenSeats[color];
+		else if (phase != null) index = byPhase.get(phase);
+		else index = all;
+		if (from != null) index = index.tailSet(from, false);
+
+		ArrayNode page = MoleServ.mapper.createArrayNode();
+		Entry last = null; boolean more = false;
+		for (Entry entry : index) {
+			if ((phase != null && entry.phase != phase) || (color != MoleGame.COLOR_UNKNOWN && entry.open[color] <= 0) ||
+				entry.observers < minObservers) continue;
+			if (page.size() == limit) { more = true; break; }
+			page.add(entry.game.toJSON()); last = entry;
+		}
+		response.set("games", page);
+		if (more) response.put("next", last.lastActivity + ":" + last.title); else response.putNull("next");
+		return new MoleResult("Found: " + page.size());
+	}
+
+	private static Entry parseCursor(String cursor) {
+		int i = cursor.indexOf(':');
+		if (i < 1) return null;
+		try { return new Entry(Long.parseLong(cursor.substring(0, i)), cursor.substring(i + 1)); }
+		catch (NumberFormatException oops) { return null; }
+	}
+}
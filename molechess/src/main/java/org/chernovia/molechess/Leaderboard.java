@@ -0,0 +1,113 @@
+package org.chernovia.molechess;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Players ordered by score (highest first, then by name), as a treap whose nodes know their
+ * subtree size, so a player's rank and any top-K slice are found in O(log n) (plus K).
+ * Not thread safe; StatsStore guards it.
+ */
+public class Leaderboard {
+
+	private static class Node {
+		final String name;
+		final long score;
+		final int priority;
+		int size = 1;
+		Node left, right;
+		Node(String n, long s, int p) { name = n; score = s; priority = p; }
+	}
+
+	private final SplittableRandom rnd = new SplittableRandom();
+	private Node root = null;
+
+	public int size() { return size(root); }
+
+	public void add(String name, long score) { root = insert(root, new Node(name, score, rnd.nextInt())); }
+
+	public void remove(String name, long score) { root = delete(root, name, score); }
+
+	public void update(String name, long oldScore, long newScore) {
+		if (oldScore == newScore) return;
+		remove(name, oldScore); add(name, newScore);
+	}
+
+	/**
+	 * @return how many players rank above this one (so 0 is first), or -1 if it isn't on the board
+	 */
+	public int rank(String name, long score) {
+		int rank = 0;
+		for (Node n = root; n != null; ) {
+			int c = compare(name, score, n);
+			if (c == 0) return rank + size(n.left);
+			if (c < 0) n = n.left;
+			else { rank += size(n.left) + 1; n = n.right; }
+		}
+		return -1;
+	}
+
+	/**
+	 * @return names of the players ranked from..from+count-1
+	 */
+	public List<String> range(int from, int count) {
+		ArrayList<String> names = new ArrayList<String>(Math.max(0, Math.min(count, size() - from)));
+		collect(root, from, from + count, 0, names);
+		return names;
+	}
+
+	private static void collect(Node n, int from, int to, int offset, List<String> names) {
+		if (n == null || offset >= to || offset + n.size <= from) return;
+		int mine = offset + size(n.left);
+		collect(n.left, from, to, offset, names);
+		if (mine >= from && mine < to) names.add(n.name);
+		collect(n.right, from, to, mine + 1, names);
+	}
+
+	private static int compare(String name, long score, Node n) {
+		if (score != n.score) return score > n.score ? -1 : 1;
+		return name.compareTo(n.name);
+	}
+
+	private static int size(Node n) { return n == null ? 0 : n.size; }
+
+	private static Node fix(Node n) { n.size = 1 + size(n.left) + size(n.right); return n; }
+
+	private static Node insert(Node n, Node node) {
+		if (n == null) return node;
+		if (compare(node.name, node.score, n) < 0) {
+			n.left = insert(n.left, node);
+			if (n.left.priority > n.priority) return rotateRight(n);
+		}
+		else {
+			n.right = insert(n.right, node);
+			if (n.right.priority > n.priority) return rotateLeft(n);
+		}
+		return fix(n);
+	}
+
+	private static Node delete(Node n, String name, long score) {
+		if (n == null) return null;
+		int c = compare(name, score, n);
+		if (c < 0) n.left = delete(n.left, name, score);
+		else if (c > 0) n.right = delete(n.right, name, score);
+		else return merge(n.left, n.right);
+		return fix(n);
+	}
+
+	private static Node merge(Node a, Node b) {
+		if (a == null) return b;
+		if (b == null) return a;
+		if (a.priority > b.priority) { a.right = merge(a.right, b); return fix(a); }
+		b.left = merge(a, b.left); return fix(b);
+	}
+
+	private static Node rotateRight(Node n) {
+		Node l = n.left; n.left = l.right; fix(n); l.right = n; return fix(l);
+	}
+
+	private static Node rotateLeft(Node n) {
+		Node r = n.right; n.right = r.left; fix(n); r.left = n; return fix(r);
+	}
+}
@@ -0,0 +1,179 @@
+package org.chernovia.molechess;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.bhlangonijr.chesslib.Board;
+import com.github.bhlangonijr.chesslib.move.Move;
+import org.chernovia.lib.chess.SearchResult;
+
+/**
+ * Low priority background analysis of finished games.
+ * Every position of a game (and the position after every voted move) is
+ * evaluated through the EngineScheduler at ANALYSIS priority, which reuses the
+ * running engines and serves live and ponder searches first.
+ * Each player's votes are then scored by centipawn loss, and a player whose
+ * votes were much worse than their team's looks "mole-like".
+ * Games that have closed meanwhile (see setLiveCheck) are neither analyzed nor published to.
+ */
+public class MoleAnalysis extends Thread {
+	public static final String MSG_TYPE_ANALYSIS = "game_analysis";
+	static int MOVE_TIME = 100, INACCURACY = 50, BLUNDER = 200, MAX_LOSS = 1000;
+	
+	static class Ply {
+		final String fen; //before the move
+		final int color;
+		final String selected;
+		final LinkedHashMap<String, String> votes = new LinkedHashMap<>(); //player name -> move
+		Ply(String f, int c, String s) { fen = f; color = c; selected = s; }
+	}
+	
+	class Job {
+		final MoleGame game;
+		final List<Ply> plies;
+		final Set<String> moles;
+		Job(MoleGame g, List<Ply> p, Set<String> m) { game = g; plies = p; moles = m; }
+	}
+	
+	class PlayerStats {
+		String name; int color; boolean mole;
+		int votes = 0, accurate = 0, blunders = 0; long loss = 0;
+		PlayerStats(String n, int c, boolean m) { name = n; color = c; mole = m; }
+		double avgLoss() { return votes > 0 ? loss / (double)votes : 0; }
+	}
+	
+	private final LinkedBlockingQueue<Job> queue = new LinkedBlockingQueue<Job>();
+	private volatile Predicate<MoleGame> live = game -> true;
+	
+	public MoleAnalysis() {
+		super("MoleAnalysis"); setDaemon(true); setPriority(Thread.MIN_PRIORITY);
+	}
+	
+	public synchronized void submit(MoleGame game, List<Ply> plies, Set<String> moles) {
+		if (plies.isEmpty()) return;
+		if (getState() == Thread.State.NEW) start();
+		queue.add(new Job(game, plies, moles));
+	}
+	
+	public int getQueued() { return queue.size(); }
+	
+	/**
+	 * @param check whether a game is still open (and so worth analyzing and publishing to)
+	 */
+	public void setLiveCheck(Predicate<MoleGame> check) { live = check; }
+	
+	public void run() {
+		while (true) {
+			try {
+				analyze(queue.take());
+			}
+			catch (InterruptedException e) { return; }
+			catch (RuntimeException oops) { MoleLog.warn("Analysis error: {}", oops.getMessage()); }
+		}
+	}
+	
+	private void analyze(Job job) throws InterruptedException {
+		if (!live.test(job.game)) { MoleMetrics.count(MoleMetrics.ANALYSIS_DROPPED); return; }
+		Board board = new Board();
+		LinkedHashSet<String> positions = new LinkedHashSet<String>();
+		ArrayList<HashMap<String, String>> resulting = new ArrayList<>(); //per ply: move -> fen after
+		for (Ply ply : job.plies) {
+			positions.add(ply.fen);
+			HashMap<String, String> after = new HashMap<String, String>();
+			board.loadFromFen(ply.fen);
+			for (String move : ply.votes.values()) {
+				if (!after.containsKey(move) && board.doMove(new Move(move, board.getSideToMove()))) {
+					after.put(move, board.getFen()); positions.add(board.getFen()); board.undoMove();
+				}
+			}
+			resulting.add(after);
+		}
+		long start = System.currentTimeMillis();
+		Map<String, SearchResult> evals = evaluate(job.game, positions);
+		double seconds = Math.max(.001, (System.currentTimeMillis() - start) / 1000.0);
+		MoleMetrics.count(MoleMetrics.ANALYSIS_POSITIONS, evals.size());
+		MoleMetrics.record(MoleMetrics.ANALYSIS_PPS, Math.round(evals.size() / seconds));
+		
+		LinkedHashMap<String, PlayerStats> stats = new LinkedHashMap<>();
+		ArrayNode plyArray = MoleServ.mapper.createArrayNode();
+		for (int i = 0; i < job.plies.size(); i++) {
+			Ply ply = job.plies.get(i);
+			SearchResult best = evals.get(ply.fen);
+			ObjectNode plyNode = MoleServ.mapper.createObjectNode();
+			plyNode.put("turn", ply.color);
+			if (best != null) { plyNode.put("best", best.bestMove); plyNode.put("eval", best.getScore()); }
+			plyArray.add(plyNode);
+			if (best == null) continue;
+			for (Map.Entry<String, String> vote : ply.votes.entrySet()) {
+				String fenAfter = resulting.get(i).get(vote.getValue());
+				SearchResult reply = fenAfter == null ? null : evals.get(fenAfter);
+				if (reply == null) continue;
+				int loss = vote.getValue().equals(best.bestMove) ? 0 : 
+					Math.max(0, Math.min(MAX_LOSS, best.getScore() + reply.getScore()));
+				PlayerStats player = stats.computeIfAbsent(vote.getKey(), 
+						name -> new PlayerStats(name, ply.color, job.moles.contains(name)));
+				player.votes++; player.loss += loss;
+				if (loss <= INACCURACY) player.accurate++;
+				if (loss >= BLUNDER) player.blunders++;
+			}
+		}
+		if (live.test(job.game)) job.game.spam(MSG_TYPE_ANALYSIS, toJSON(job, evals.size(), seconds, stats.values(), plyArray));
+		else MoleMetrics.count(MoleMetrics.ANALYSIS_DROPPED);
+	}
+	
+	//submits every position (the scheduler runs them behind live work) and waits for all of them
+	private Map<String, SearchResult> evaluate(MoleGame game, Set<String> positions) throws InterruptedException {
+		ConcurrentHashMap<String, SearchResult> evals = new ConcurrentHashMap<>();
+		CountDownLatch latch = new CountDownLatch(positions.size());
+		for (String fen : positions) {
+			MoleServ.engines.submit(new StockListener() {
+				@Override
+				public void newStockMove(String move) { latch.countDown(); }
+				@Override
+				public void newSearchResult(SearchResult result) {
+					if (result.bestMove != null) evals.put(fen, result);
+					latch.countDown();
+				}
+			}, this, fen, MOVE_TIME, 0, EngineScheduler.PRIORITY.ANALYSIS);
+		}
+		latch.await(positions.size() * (long)(MOVE_TIME + 1000), TimeUnit.MILLISECONDS);
+		return evals;
+	}
+	
+	private ObjectNode toJSON(Job job, int positions, double seconds, Iterable<PlayerStats> stats, ArrayNode plies) {
+		double[] teamLoss = new double[2]; int[] teamVotes = new int[2];
+		for (PlayerStats player : stats) { teamLoss[player.color] += player.loss; teamVotes[player.color] += player.votes; }
+		ObjectNode node = MoleServ.mapper.createObjectNode();
+		node.put("title", job.game.getTitle());
+		node.put("positions", positions);
+		node.put("pps", Math.round(positions / seconds));
+		ArrayNode playerArray = MoleServ.mapper.createArrayNode();
+		for (PlayerStats player : stats) {
+			ObjectNode playerNode = MoleServ.mapper.createObjectNode();
+			playerNode.put("name", player.name);
+			playerNode.put("color", player.color);
+			playerNode.put("mole", player.mole);
+			playerNode.put("votes", player.votes);
+			playerNode.put("accuracy", player.votes > 0 ? Math.round(100.0 * player.accurate / player.votes) : 0);
+			playerNode.put("avg_loss", Math.round(player.avgLoss()));
+			playerNode.put("blunders", player.blunders);
+			double teamAvg = teamVotes[player.color] > 0 ? teamLoss[player.color] / teamVotes[player.color] : 0;
+			playerNode.put("mole_likeness", teamAvg > 0 ? Math.round(100 * player.avgLoss() / teamAvg) / 100.0 : 0);
+			playerArray.add(playerNode);
+		}
+		node.set("players", playerArray);
+		node.set("plies", plies);
+		return node;
+	}
+}
@@ -0,0 +1,71 @@
+package org.chernovia.molechess;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Chat rooms with their own subscriber sets: the lobby, one room per game
+ * (players and observers) and one per team. Game and team rooms are named under "game:",
+ * so no title can collide with the lobby or with another game's rooms. Messages are routed by room name,
+ * encoded once for all recipients, rate limited per user and kept in a short
+ * history that is replayed to whoever joins the room.
+ */
+public class MoleChat {
+	public static final String LOBBY = "lobby", MSG_TYPE_CHAT = "chat";
+	static int HISTORY_SIZE = 50, BURST = 5;
+	static double RATE = 1; //messages per second
+	
+	class Room {
+		final String name;
+		final Set<MoleUser> members = ConcurrentHashMap.newKeySet();
+		private final ArrayDeque<JsonNode> history = new ArrayDeque<JsonNode>();
+		Room(String n) { name = n; }
+		synchronized void record(JsonNode node) {
+			if (history.size() >= HISTORY_SIZE) history.poll();
+			history.add(node);
+		}
+		synchronized List<JsonNode> getHistory() { return new ArrayList<JsonNode>(history); }
+	}
+	
+	private final ConcurrentHashMap<String, Room> rooms = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<MoleUser, TokenBucket> limits = new ConcurrentHashMap<>();
+	
+	public static String gameRoom(String title) { return "game:" + title; }
+	public static String teamRoom(String title, int color) { return gameRoom(title) + "/" + color; }
+	
+	public void join(String room, MoleUser user) {
+		Room r = rooms.computeIfAbsent(room, Room::new);
+		if (r.members.add(user)) for (JsonNode node : r.getHistory()) user.tell(MSG_TYPE_CHAT, node);
+	}
+	
+	public void part(String room, MoleUser user) {
+		Room r = rooms.get(room); if (r != null) r.members.remove(user);
+	}
+	
+	public void close(String room) { rooms.remove(room); }
+	
+	//drops the user's rate limit state (on disconnect)
+	public void forget(MoleUser user) { limits.remove(user); }
+	
+	public boolean isMember(String room, MoleUser user) {
+		Room r = rooms.get(room); return r != null && r.members.contains(user);
+	}
+	
+	public MoleResult send(MoleUser user, String room, JsonNode node) {
+		Room r = rooms.get(room);
+		if (r == null || !r.members.contains(user)) return new MoleResult(false, "Not in chat room: " + room);
+		if (!limits.computeIfAbsent(user, u -> new TokenBucket(BURST, RATE)).tryTake()) {
+			return new MoleResult(false, "Slow down!");
+		}
+		MoleEvents.Broadcast event = new MoleEvents.Broadcast(); event.begin();
+		JsonNode encoded = MoleServ.encode(node);
+		r.record(encoded);
+		for (MoleUser member : r.members) member.tell(MSG_TYPE_CHAT, encoded);
+		MoleEvents.commit(event, MSG_TYPE_CHAT, room, r.members.size(), encoded);
+		return new MoleResult("Sent");
+	}
+}
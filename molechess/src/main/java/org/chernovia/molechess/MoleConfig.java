@@ -0,0 +1,200 @@
+package org.chernovia.molechess;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.DoubleConsumer;
+import java.util.function.DoubleSupplier;
+import java.util.function.IntConsumer;
+import java.util.function.IntSupplier;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Runtime tuning from a JSON file (molechess.json, or the molechess.config property), reloaded
+ * whenever the file changes. Each setting is typed and range checked, and is written to the
+ * static it controls; a bad value is reported and skipped, keeping the old one
+ * (min_players and max_players are also checked as a pair).
+ * After a reload, listeners get the names of the settings that changed
+ * (MoleServ passes game settings on to running games, which pick them up between turns).
+ * The metrics command shows the current values.
+ */
+public class MoleConfig {
+
+	static long DEBOUNCE_MS = 200; //editors often write a file in several steps
+
+	abstract static class Setting {
+		final String name, group;
+		Setting(String n, String g) { name = n; group = g; }
+		abstract JsonNode get();
+		//@return an error, or null
+		abstract String set(JsonNode value);
+	}
+
+	static class IntSetting extends Setting {
+		final int min, max;
+		final IntSupplier getter;
+		final IntConsumer setter;
+		IntSetting(String n, String g, int lo, int hi, IntSupplier get, IntConsumer set) {
+			super(n, g); min = lo; max = hi; getter = get; setter = set;
+		}
+		JsonNode get() { return MoleServ.mapper.getNodeFactory().numberNode(getter.getAsInt()); }
+		String set(JsonNode value) {
+			if (!value.canConvertToInt() || !value.isIntegralNumber()) return name + ": not an integer";
+			int v = value.asInt();
+			if (v < min || v > max) return name + ": " + v + " not in " + min + ".." + max;
+			setter.accept(v); return null;
+		}
+	}
+
+	static class DoubleSetting extends Setting {
+		final double min, max;
+		final DoubleSupplier getter;
+		final DoubleConsumer setter;
+		DoubleSetting(String n, String g, double lo, double hi, DoubleSupplier get, DoubleConsumer set) {
+			super(n, g); min = lo; max = hi; getter = get; setter = set;
+		}
+		JsonNode get() { return MoleServ.mapper.getNodeFactory().numberNode(getter.getAsDouble()); }
+		String set(JsonNode value) {
+			if (!value.isNumber()) return name + ": not a number";
+			double v = value.asDouble();
+			if (v < min || v > max) return name + ": " + v + " not in " + min + ".." + max;
+			setter.accept(v); return null;
+		}
+	}
+
+	private static final LinkedHashMap<String, Setting> settings = new LinkedHashMap<String, Setting>();
+	static {
+		add(new IntSetting("move_time", "game", 1, 300, () -> MoleServ.DEF_MOVE_TIME, v -> MoleServ.DEF_MOVE_TIME = v));
+		add(new DoubleSetting("calc_factor", "game", .01, 1, () -> MoleGame.CALC_FACTOR, v -> MoleGame.CALC_FACTOR = v));
+		add(new IntSetting("post_time", "game", 0, 3600, () -> MoleGame.POST_TIME, v -> MoleGame.POST_TIME = v));
+		add(new IntSetting("pre_time", "game", 10, 86400, () -> MoleGame.PRE_TIME, v -> MoleGame.PRE_TIME = v));
+		add(new IntSetting("min_players", "game", 1, 16, () -> MoleGame.MIN_PLAYERS, v -> MoleGame.MIN_PLAYERS = v));
+		add(new IntSetting("max_players", "game", 2, 32, () -> MoleGame.MAX_PLAYERS, v -> MoleGame.MAX_PLAYERS = v));
+		add(new IntSetting("engine_threads", "engine", 1, 256, () -> MoleServ.ENGINE_THREADS, v -> MoleServ.ENGINE_THREADS = v));
+		add(new IntSetting("engine_hash", "engine", 1, 65536, () -> MoleServ.ENGINE_HASH, v -> MoleServ.ENGINE_HASH = v));
+		add(new IntSetting("player_elo", "engine", 100, 3500, () -> MolePlayer.PLAYER_ELO, v -> MolePlayer.PLAYER_ELO = v));
+		add(new IntSetting("mole_elo", "engine", 100, 3500, () -> MolePlayer.MOLE_ELO, v -> MolePlayer.MOLE_ELO = v));
+		add(new IntSetting("java_max_elo", "engine", 0, 3500, () -> EngineScheduler.JAVA_MAX_ELO, v -> EngineScheduler.JAVA_MAX_ELO = v));
+		add(new IntSetting("java_max_time", "engine", 10, 60000, () -> EngineScheduler.JAVA_MAX_TIME, v -> EngineScheduler.JAVA_MAX_TIME = v));
+		add(new IntSetting("engine_overload", "engine", 1, 100, () -> EngineScheduler.OVERLOAD, v -> EngineScheduler.OVERLOAD = v));
+		add(new IntSetting("lobby_update_ms", "broadcast", 0, 10000, () -> MoleServ.LOBBY_UPDATE_MS, v -> MoleServ.LOBBY_UPDATE_MS = v));
+		add(new IntSetting("spectator_delay", "broadcast", 0, 600, () -> MoleGame.SPECTATOR_DELAY, v -> MoleGame.SPECTATOR_DELAY = v));
+		add(new IntSetting("max_user_games", "server", 1, 100, () -> MoleServ.MAX_USER_GAMES, v -> MoleServ.MAX_USER_GAMES = v));
+		add(new IntSetting("purge_secs", "server", 1, 3600, () -> MoleServ.PURGE_FREQ, v -> MoleServ.PURGE_FREQ = v));
+	}
+
+	private static void add(Setting setting) { settings.put(setting.name, setting); }
+
+	private static final CopyOnWriteArrayList<Consumer<List<Setting>>> listeners = new CopyOnWriteArrayList<>();
+	private static Path file = null;
+	private static long loaded = 0;
+	private static List<String> errors = new ArrayList<String>();
+
+	/**
+	 * @param listener gets the settings that changed after each reload
+	 */
+	public static void addListener(Consumer<List<Setting>> listener) { listeners.add(listener); }
+
+	/**
+	 * Loads the file (if it exists) and keeps watching it.
+	 */
+	public static void watch(String path) {
+		file = Paths.get(path).toAbsolutePath();
+		reload();
+		Thread watcher = new Thread(MoleConfig::watchLoop, "ConfigWatcher"); watcher.setDaemon(true); watcher.start();
+	}
+
+	private static void watchLoop() {
+		try (WatchService service = FileSystems.getDefault().newWatchService()) {
+			file.getParent().register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+			while (true) {
+				WatchKey key = service.take();
+				boolean ours = false;
+				for (WatchEvent<?> event : key.pollEvents()) {
+					if (file.getFileName().equals(event.context())) ours = true;
+				}
+				key.reset();
+				if (ours) {
+					Thread.sleep(DEBOUNCE_MS);
+					WatchKey more = service.poll();
+					if (more != null) { more.pollEvents(); more.reset(); }
+					try { reload(); }
+					catch (RuntimeException e) { MoleLog.warn("Config reload failed: {}", e); }
+				}
+			}
+		}
+		catch (IOException | ClosedWatchServiceException e) { MoleLog.warn("Not watching config {}: {}", file, e.getMessage()); }
+		catch (InterruptedException e) {}
+	}
+
+	/**
+	 * Applies the file's settings, skipping (and reporting) bad or unknown ones.
+	 */
+	public static synchronized void reload() {
+		if (file == null || !Files.isReadable(file)) return;
+		ArrayList<String> problems = new ArrayList<String>();
+		LinkedHashMap<Setting, JsonNode> changed = new LinkedHashMap<Setting, JsonNode>(); //to the old value
+		int oldMin = MoleGame.MIN_PLAYERS, oldMax = MoleGame.MAX_PLAYERS;
+		try {
+			JsonNode root = MoleServ.mapper.readTree(file.toFile());
+			if (root == null || !root.isObject()) throw new IOException("not a JSON object");
+			for (Iterator<Map.Entry<String, JsonNode>> it = root.fields(); it.hasNext(); ) {
+				Map.Entry<String, JsonNode> entry = it.next();
+				Setting setting = settings.get(entry.getKey());
+				if (setting == null) { problems.add(entry.getKey() + ": unknown setting"); continue; }
+				JsonNode old = setting.get();
+				String error = setting.set(entry.getValue());
+				if (error != null) problems.add(error);
+				else if (!old.equals(setting.get())) changed.put(setting, old);
+			}
+		}
+		catch (IOException e) { problems.add(file.getFileName() + ": " + e.getMessage()); }
+		if (MoleGame.MIN_PLAYERS >= MoleGame.MAX_PLAYERS) { //only valid as a pair
+			problems.add("min_players: " + MoleGame.MIN_PLAYERS + " not below max_players: " + MoleGame.MAX_PLAYERS +
+				" (keeping " + oldMin + ".." + oldMax + ")");
+			MoleGame.MIN_PLAYERS = oldMin; MoleGame.MAX_PLAYERS = oldMax;
+			changed.keySet().removeIf(s -> s.name.equals("min_players") || s.name.equals("max_players"));
+		}
+		for (Map.Entry<Setting, JsonNode> entry : changed.entrySet()) {
+			MoleLog.info("Config: {} = {} (was {})", entry.getKey().name, entry.getKey().get(), entry.getValue());
+		}
+		for (String problem : problems) MoleLog.warn("Config: {}", problem);
+		errors = problems; loaded = System.currentTimeMillis();
+		MoleMetrics.count(MoleMetrics.CONFIG_RELOADS);
+		if (changed.isEmpty()) return;
+		List<Setting> settingsChanged = new ArrayList<Setting>(changed.keySet());
+		for (Consumer<List<Setting>> listener : listeners) {
+			try { listener.accept(settingsChanged); }
+			catch (RuntimeException e) { MoleLog.warn("Config listener failed: {}", e); }
+		}
+	}
+
+	public static synchronized JsonNode toJSON() {
+		ObjectNode node = MoleServ.mapper.createObjectNode();
+		node.put("file", file == null ? null : file.getFileName().toString()); //not the path, metrics are open to all users
+		node.put("loaded", loaded);
+		ArrayNode errorArray = node.putArray("errors");
+		for (String error : errors) errorArray.add(error);
+		for (Setting setting : settings.values()) {
+			ObjectNode group = node.has(setting.group) ? (ObjectNode)node.get(setting.group) : node.putObject(setting.group);
+			group.set(setting.name, setting.get());
+		}
+		return node;
+	}
+}
@@ -0,0 +1,90 @@
+package org.chernovia.molechess;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.POJONode;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder events for games and the server (engine events are in EngineEvents).
+ * Fields are only filled in when shouldCommit() says the event will be recorded.
+ * See resources/molechess.jfc for an always-on recording profile.
+ */
+public class MoleEvents {
+
+	@Name("molechess.Phase")
+	@Label("Game Phase")
+	@Category({ "MoleChess", "Game" })
+	@Description("A game phase, from its start until its countdown ends or it is cut short")
+	public static class Phase extends Event {
+		@Label("Game") public String game;
+		@Label("Phase") public String phase;
+		@Label("Countdown") public int countdown;
+		@Label("Timed Out") public boolean timeout;
+	}
+
+	@Name("molechess.MoveSelected")
+	@Label("Move Selected")
+	@Category({ "MoleChess", "Game" })
+	@Description("Picking a team's move, playing it and sending out the new history")
+	public static class MoveSelected extends Event {
+		@Label("Game") public String game;
+		@Label("Ply") public int ply;
+		@Label("Color") public int color;
+		@Label("Move") public String move;
+		@Label("Votes") public int votes;
+		@Label("Selection Mode") public String mode;
+	}
+
+	@Name("molechess.MoleVote")
+	@Label("Mole Vote")
+	@Category({ "MoleChess", "Game" })
+	public static class MoleVote extends Event {
+		@Label("Game") public String game;
+		@Label("Voter") public String voter;
+		@Label("Suspect") public String suspect;
+		@Label("Voted Off") public boolean votedOff;
+	}
+
+	@Name("molechess.Command")
+	@Label("Command")
+	@Category({ "MoleChess", "Server" })
+	@Description("Handling one client message")
+	public static class Command extends Event {
+		@Label("Type") public String type;
+		@Label("User") public String user;
+		@Label("Frame Size") @DataAmount public int bytes;
+	}
+
+	@Name("molechess.Broadcast")
+	@Label("Broadcast")
+	@Category({ "MoleChess", "Server" })
+	@Description("Encoding a message once and telling it to each recipient")
+	public static class Broadcast extends Event {
+		@Label("Type") public String type;
+		@Label("Source") public String source;
+		@Label("Recipients") public int recipients;
+		@Label("Size") @DataAmount public long bytes;
+	}
+
+	static void commit(Broadcast event, String type, String source, int recipients, JsonNode encoded) {
+		event.end();
+		if (event.shouldCommit()) {
+			event.type = type; event.source = source; event.recipients = recipients;
+			event.bytes = (long)encodedSize(encoded) * recipients;
+			event.commit();
+		}
+	}
+
+	//characters of a node made by MoleServ.encode
+	private static int encodedSize(JsonNode encoded) {
+		if (encoded instanceof POJONode && ((POJONode)encoded).getPojo() instanceof WireFormat.Encoded) {
+			return ((WireFormat.Encoded)((POJONode)encoded).getPojo()).json.length();
+		}
+		return encoded.toString().length();
+	}
+}
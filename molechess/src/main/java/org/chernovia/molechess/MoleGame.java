@@ -7,60 +7,26 @@ import java.awt.Color;
 import java.io.FileNotFoundException;
 import java.util.ArrayList;
 import java.util.ConcurrentModificationException;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Scanner;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
 import com.github.bhlangonijr.chesslib.*;
 import com.github.bhlangonijr.chesslib.move.Move;
+import org.chernovia.lib.chess.Engine;
+import org.chernovia.lib.chess.SearchRequest;
+import org.chernovia.lib.chess.SearchResult;
 
 public class MoleGame implements Runnable {
 	
-	class MoveVote {
-		MolePlayer player;
-		Move move;
-		boolean selected = false;
-		public MoveVote(MolePlayer p, Move m) { player = p; move = m; }
-		public String toString() {
-			return (player.user.name + ": " + move);
-		}
-		public JsonNode toJSON() {
-			ObjectNode node = MoleServ.mapper.createObjectNode();
-			node.set("player", player != null ? player.toJSON() : null);
-			ObjectNode moveNode = MoleServ.mapper.createObjectNode();
-			moveNode.put("from", move.getFrom().value());
-			moveNode.put("to", move.getTo().value());
-			node.set("move", moveNode);
-			return node;
-		}
-	}
-	
-	class MoveVotes {
-		ArrayList<MoveVote> selected;
-		ArrayList<MoveVote> alts;
-		String fen;
-		int color;
-		public MoveVotes(ArrayList<MoveVote> votes, String fenString, int c) {
-			fen = fenString; color = c;
-			alts = new ArrayList<MoveVote>();
-			selected = new ArrayList<MoveVote>();
-			for (MoveVote mv : votes) {
-				if (mv.selected) selected.add(mv); 
-				else alts.add(mv);
-			}
-		}
-		public JsonNode toJSON() {
-			ObjectNode node = MoleServ.mapper.createObjectNode();
-			ArrayNode altsArray = MoleServ.mapper.createArrayNode();
-			for (MoveVote alt : alts) altsArray.add(alt.toJSON());
-			node.set("alts",altsArray);
-			ArrayNode selectedArray = MoleServ.mapper.createArrayNode();
-			for (MoveVote selectedMove : selected) selectedArray.add(selectedMove.toJSON());
-			node.set("selected", selectedArray);
-			node.put("fen", fen);
-			node.put("turn", color);
-			return node;
-		}
-	}
-	
 	class MoleTeam {
 		ArrayList<MolePlayer> players;
 		int votes;
@@ -78,6 +44,47 @@ public class MoleGame implements Runnable {
 		}
 	}
 	
+	/**
+	 * Who a message is for. Team messages (votes, vote listings) also reach
+	 * spectators, but only SPECTATOR_DELAY seconds later.
+	 */
+	public enum CHANNEL { PUBLIC, TEAM_BLACK, TEAM_WHITE, MOLES };
+	
+	//recipient lists, built once per phase (or roster change) rather than per message
+	class Audience {
+		final long version; //of the roster it was built from
+		final MoleUser[] everyone, spectators, moles;
+		final MoleUser[][] team = new MoleUser[2][];
+		Audience(long v) {
+			version = v;
+			ArrayList<MoleUser> all = new ArrayList<MoleUser>(), moleList = new ArrayList<MoleUser>();
+			for (int c = COLOR_BLACK; c <= COLOR_WHITE; c++) {
+				ArrayList<MoleUser> members = new ArrayList<MoleUser>();
+				for (MolePlayer player : teams[c].players) {
+					if (!player.away && !player.ai) {
+						members.add(player.user);
+						if (player.role == MolePlayer.ROLE.MOLE) moleList.add(player.user);
+					}
+				}
+				team[c] = members.toArray(new MoleUser[0]); all.addAll(members);
+			}
+			ArrayList<MoleUser> watching = new ArrayList<MoleUser>();
+			for (MoleUser user : observers) if (!all.contains(user)) watching.add(user);
+			all.addAll(watching);
+			everyone = all.toArray(new MoleUser[0]);
+			spectators = watching.toArray(new MoleUser[0]);
+			moles = moleList.toArray(new MoleUser[0]);
+		}
+		MoleUser[] get(CHANNEL channel) {
+			switch (channel) {
+				case TEAM_BLACK: return team[COLOR_BLACK];
+				case TEAM_WHITE: return team[COLOR_WHITE];
+				case MOLES: return moles;
+				default: return everyone;
+			}
+		}
+	}
+	
 	public static ArrayList<String> MOLE_NAMES = getRandomNames("resources/molenames.txt");
 	public static final String MSG_TYPE_MOVELIST = "movelist";
 	public static final int COLOR_UNKNOWN = -1, COLOR_BLACK = 0, COLOR_WHITE = 1;
@@ -85,42 +92,115 @@ public class MoleGame implements Runnable {
 	public enum GAME_PHASE { PREGAME, VOTING, POSTGAME };
 	private MoleTeam[] teams = new MoleTeam[2];
 	ArrayList<MoleUser> observers = new ArrayList<MoleUser>();
+	private ConcurrentHashMap<MoleUser, MolePlayer> players = new ConcurrentHashMap<>();
 	private MoleListener listener;
+	private MoleChat chat;
 	private boolean playing;
 	private MoleUser creator;
 	private String title;
 	private long lastActivity;
-	private int minPlayers = 3, maxPlayers = 6;
+	static volatile int MIN_PLAYERS = 3, MAX_PLAYERS = 6, POST_TIME = 300, PRE_TIME = 999; //defaults, see MoleConfig
+	static volatile double CALC_FACTOR = .25;
+	private int minPlayers = MIN_PLAYERS, maxPlayers = MAX_PLAYERS;
 	private int turn;
-	private int moveTime = 12, postTime = 300, preTime = 999;
-	private double calcFactor = .25;
+	private int moveTime = 12, postTime = POST_TIME, preTime = PRE_TIME;
+	private double calcFactor = CALC_FACTOR;
+	private volatile boolean reconfigured = false;
 	private Board board;
 	private Thread gameThread;
 	private int moveNum;
-	private ArrayList<MoveVotes> moveHistory;
+	private MoveHistory history;
+	private volatile String turnFen; //the position being voted on, for threads other than the game's
+	private final ArrayList<MoveHistory.Ply> replayed = new ArrayList<MoveHistory.Ply>(); //plies so far, extended as needed
+	private MoveTally tally = new MoveTally();
+	private Ponderer ponderer = new Ponderer(this);
+	private MoveTally.SELECTION_MODE selectionMode = MoveTally.SELECTION_MODE.RANDOM;
 	private GAME_PHASE phase = GAME_PHASE.PREGAME;
+	private long phaseEnd = 0;
 	private int voteLimit = 1;
 	private int moleBonus = 100, winBonus = 200;
 	private boolean aiFilling = true;
 	private boolean endOnMutualAccusation = false;
 	private boolean endOnAccusation = false;
 	private boolean defection = true;
-	private float currentGUIHue = (float)Math.random();
+	private float currentGUIHue;
+	private long seed;
+	private SplittableRandom rnd; //all of a game's randomness, so a seed replays it exactly
+	private GameClock clock = GameClock.REAL;
+	private Engine simEngine = null; //set only in simulations
+	private int maxMoves = 0;
+	private volatile Audience audience;
+	private final AtomicLong audienceVersion = new AtomicLong();
+	static volatile int SPECTATOR_DELAY = 30;
+	private static final ScheduledExecutorService delayer = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread t = new Thread(r, "SpectatorDelay"); t.setDaemon(true); return t;
+	});
 	
-	public MoleGame(MoleUser c, String t, MoleListener l) {
-		creator = c; title = t; playing = false; listener = l;
+	public MoleGame(MoleUser c, String t, MoleListener l, MoleChat ch) {
+		creator = c; title = t; playing = false; listener = l; chat = ch;
 		for (int color = COLOR_BLACK; color <= COLOR_WHITE; color++) teams[color] = new MoleTeam(color);
-		moveHistory = new ArrayList<MoveVotes>();
-		lastActivity = System.currentTimeMillis();
+		history = new MoveHistory(new Board().getFen());
+		seed(ThreadLocalRandom.current().nextLong());
+		lastActivity = clock.now();
+	}
+	
+	private void seed(long s) {
+		seed = s; rnd = new SplittableRandom(s); currentGUIHue = (float)rnd.nextDouble();
+	}
+	
+	/**
+	 * Turns this game into a headless simulation: a virtual clock, randomness from the given seed
+	 * and AI players searching with the given engine on the game thread.
+	 * Must be called before any player joins.
+	 */
+	void simulate(long s, Engine engine, int moveLimit) {
+		seed(s); clock = new GameClock.Virtual(); simEngine = engine; maxMoves = moveLimit;
+		lastActivity = clock.now();
+	}
+	
+	//runs a simulated game to the end on the calling thread
+	void play() {
+		gameThread = Thread.currentThread();
+		aiFill(COLOR_BLACK); aiFill(COLOR_WHITE);
+		run();
+		Thread.interrupted(); //a vote may have interrupted the last phase after it ended
 	}
 	
 	public MoleUser getCreator() { return creator; }
 	public String getTitle() { return title; }
 	public int getMaxPlayers() { return maxPlayers; }
+	public MoveHistory getHistory() { return history; }
+	public long getSeed() { return seed; }
+	public GAME_PHASE getPhase() { return phase; }
+	public long getLastActivity() { return lastActivity; }
+	public int getObserverCount() { return observers.size(); }
+	//seats a new player could still take (only before the game starts)
+	public int getOpenSeats(int color) {
+		return phase == GAME_PHASE.PREGAME ? Math.max(0, maxPlayers - 1 - teams[color].players.size()) : 0;
+	}
+	public String getTeamRoom(MoleUser user) {
+		MolePlayer player = getPlayer(user);
+		return player == null ? null : MoleChat.teamRoom(title, player.color);
+	}
 	public void setMoveTime(int t) { moveTime = t; }
+	
+	/**
+	 * Picks up changed defaults (see MoleConfig): at once before the game starts, otherwise at the next turn.
+	 */
+	public void reconfigure() {
+		if (phase == GAME_PHASE.PREGAME && !playing) applyConfig(); else reconfigured = true;
+	}
+	
+	private void applyConfig() {
+		reconfigured = false;
+		moveTime = MoleServ.DEF_MOVE_TIME; calcFactor = CALC_FACTOR; postTime = POST_TIME; preTime = PRE_TIME;
+		if (phase == GAME_PHASE.PREGAME && MIN_PLAYERS < MAX_PLAYERS) { minPlayers = MIN_PLAYERS; maxPlayers = MAX_PLAYERS; }
+		listener.changed(this);
+	}
+	public void setSelectionMode(MoveTally.SELECTION_MODE mode) { selectionMode = mode; }
 	public boolean isDefunct() { return isDefunct(preTime * 1000); }
 	public boolean isDefunct(int timeout) {
-		return (!playing && ((System.currentTimeMillis() - timeout) > lastActivity));
+		return (!playing && ((clock.now() - timeout) > lastActivity));
 	}
 	
     public JsonNode toJSON() {
@@ -136,18 +216,51 @@ public class MoleGame implements Runnable {
     public void addObserver(MoleUser user) {
     	if (!observers.contains(user)) {
     		observers.add(user); user.tell(MSG_TYPE_MOVELIST,historyToJSON());
+    		chat.join(MoleChat.gameRoom(title), user); invalidateAudience(); user.addGame(this);
+    		listener.changed(this);
     	}
     }
     
+    public boolean hasUser(MoleUser user) { return observers.contains(user) || getPlayer(user) != null; }
+    
+    //a returning player is no longer away
+    public void resume(MoleUser user) {
+    	MolePlayer player = getPlayer(user);
+    	if (player != null && player.away) {
+    		player.setAway(false); joinChat(player); invalidateAudience();
+    		spam(player.user.name + " returns.");
+    	}
+    }
+    
+    //everything a client needs to redraw the game: board, phase, time left and history
+    public void sendSnapshot(MoleUser user) {
+    	if (board != null) {
+    		ObjectNode node = MoleServ.mapper.createObjectNode();
+    		String last = history.getLastMove();
+    		node.put("lm", last == null ? "" : last);
+    		node.put("fen", board.getFen());
+    		user.tell("game_update", node);
+    	}
+    	user.tell("phase", phase.toString());
+    	long remaining = (phaseEnd - clock.now()) / 1000;
+    	if (remaining > 0) user.tell("countdown", "" + remaining);
+    	user.tell(MSG_TYPE_MOVELIST, historyToJSON());
+    	MolePlayer player = getPlayer(user);
+    	if (player != null && player.role == MolePlayer.ROLE.MOLE) user.tell("mole", "");
+    }
+    
     public void removeObserver(MoleUser user) {
     	if (observers.remove(user)); user.tell("No longer observing: " + title);
+    	if (getPlayer(user) == null) { chat.part(MoleChat.gameRoom(title), user); user.removeGame(this); }
+    	invalidateAudience(); listener.changed(this);
     }
   
 	public void addPlayer(MoleUser user, int color) {
 		MolePlayer player = getPlayer(user);
 		if (player != null) {
 			if (player.away) {
-				player.away = false;
+				player.setAway(false);
+				joinChat(player); invalidateAudience();
 				listener.handleAction(user, new MoleResult("Rejoining game: " + title));
 			} 
 			else listener.handleAction(user, new MoleResult(false, "Error: already joined"));
@@ -159,9 +272,12 @@ public class MoleGame implements Runnable {
 			listener.handleAction(user, new MoleResult(false, "Too many players")); 
 		}
 		else {
-			teams[color].players.add(new MolePlayer(user, this, color, nextGUIColor()));
+			MolePlayer newPlayer = new MolePlayer(user, this, color, nextGUIColor());
+			teams[color].players.add(newPlayer); players.put(user, newPlayer); user.addGame(this);
+			joinChat(newPlayer); invalidateAudience();
 			listener.handleAction(user, new MoleResult("Joined game: " + title));
-			lastActivity = System.currentTimeMillis();
+			lastActivity = clock.now();
+			listener.changed(this);
 		}
 	}
 	
@@ -171,11 +287,14 @@ public class MoleGame implements Runnable {
 		MolePlayer player = getPlayer(user);
 		if (player != null) {
 			if (phase == GAME_PHASE.PREGAME) {
-				teams[player.color].players.remove(player);
+				teams[player.color].players.remove(player); players.remove(user);
+				if (!observers.contains(user)) user.removeGame(this);
+				listener.changed(this);
 			} 
 			else {
-				player.away = true;
+				player.setAway(true);
 			} 
+			partChat(player); invalidateAudience();
 			spam(player.user.name + " leaves.");
 			listener.handleAction(user, new MoleResult("Left game: " + title));
 			if (deserted()) {
@@ -229,7 +348,7 @@ public class MoleGame implements Runnable {
     		listener.handleAction(player.user, new MoleResult(false, "Sorry, you've been voted off")); 
     	}
     	else if (addVote(player,getMove(movestr))) {
-    		listener.handleAction(player.user, new MoleResult(player.user.name + " votes: " + movestr));
+    		spam(teamChannel(player.color), player.user.name + " votes: " + movestr);
     	}
 		else {
 			listener.handleAction(player.user, new MoleResult(false,"Bad Move: " + movestr));
@@ -278,63 +397,123 @@ public class MoleGame implements Runnable {
     	}
     	else {
     		player.resigning = true;
-    		spam(player.user.name + " resigns");
+    		spam(teamChannel(player.color), player.user.name + " resigns");
     		if (resigning(player.color)) endGame(getNextTurn(),"resignation"); 
     	}
     }
     
     public void run() {
     	playing = true;
-    	setMole(COLOR_BLACK); setMole(COLOR_WHITE);
+    	setMole(COLOR_BLACK); setMole(COLOR_WHITE); invalidateAudience();
+    	spam(CHANNEL.MOLES, "You're the mole!"); spam(CHANNEL.MOLES, "mole", "");
     	turn = COLOR_WHITE; board = new Board(); moveNum = 1;
     	listener.started(this); spamMove(null); //starting position
     	while (playing) {
+  			if (reconfigured) applyConfig();
   			spam("Turn #" + moveNum + ": " + colorString(turn));
+  			long turnStart = clock.now();
+  			turnFen = board.getFen();
+  			phase = GAME_PHASE.VOTING; //so votes that are known at once (book, cache, simulation) count
   			autoPlay(turn);
    			//boolean timeout = 
    			newPhase(GAME_PHASE.VOTING, moveTime);
+   			MoleMetrics.record(MoleMetrics.TURN_MS, clock.now() - turnStart);
    			if (playing) {
+   				MoleEvents.MoveSelected event = new MoleEvents.MoveSelected(); event.begin();
+   				int votes = tally.count();
        			Move move;
-       			ArrayList<Move> moveList = getMoveVotes(turn);
-       			if (moveList.size() == 0) {
+       			if (tally.count() == 0) {
        				spam("No legal moves selected, picking randomly...");
        				move = pickMove(board.legalMoves());
        			}
        			else {
-       				spam("Picking randomly from the following moves: \n" + listMoves(turn));
-       	 			move = pickMove(moveList);
+       				spam(teamChannel(turn), selectionString(selectionMode) + " from the following moves: \n" + tally.listMoves());
+       	 			move = tally.select(selectionMode, rnd);
        			}
        			spam("Selected Move: " + move);
        			if (makeMove(move).result) {
        				if (playing) {
-       					moveHistory.add(getMoveVotes(turn,board.getFen(),move));
-       			    	spam(MSG_TYPE_MOVELIST,historyToJSON());
-                		clearMoveVotes(turn);
+       					history.add(turn,move,tally.getVotes(),board.getFen());
+       			    	if (hasAudience()) spam(MSG_TYPE_MOVELIST,historyToJSON());
+       			    	event.end();
+       			    	if (event.shouldCommit()) {
+       			    		event.game = title; event.ply = history.size(); event.color = turn; event.move = move.toString();
+       			    		event.votes = votes; event.mode = selectionMode.toString();
+       			    		event.commit();
+       			    	}
+                		tally.clear();
        					turn = getNextTurn();
                 		moveNum++;
+                		if (maxMoves > 0 && moveNum > maxMoves) endGame(COLOR_UNKNOWN,"move limit");
        				}
        			}
        			else { spam("WTF: " + move); return; } ////shouldn't occur
    			}
 		}
+    	MoleMetrics.record(MoleMetrics.HISTORY_BYTES, history.estimateBytes());
+    	if (simEngine == null) MoleServ.analysis.submit(this, getPlies(), getMoles());
     	if (!deserted()) newPhase(GAME_PHASE.POSTGAME,postTime);
     	listener.finished(this);
     }
     
     private void autoPlay(int turn) {
+    	String fen = turnFen;
+    	if (simEngine != null) { simulateVotes(fen); return; }
 		for (MolePlayer player : teams[turn].players) {
-			if (player.ai) player.analyzePosition(board.getFen(),(int)(moveTime * calcFactor) * 1000);
+			if (player.ai && !ponderer.attach(fen, player.getElo(), player, getAITime())) {
+				player.analyzePosition(fen,getAITime());
+			}
 		}
     }
     
+    //simulated AI players search in roster order on the game thread, so a seed always replays the same game
+    private void simulateVotes(String fen) {
+    	for (MolePlayer player : teams[turn].players) {
+    		if (player.ai && player.isActive()) {
+    			SearchResult result = simEngine.search(new SearchRequest(fen, getAITime(), player.getElo()));
+    			if (result.bestMove != null) voteMove(player, result.bestMove);
+    		}
+    	}
+    }
+    
+    private int getAITime() { return (int)(moveTime * calcFactor) * 1000; }
+    
+    //searches the positions after the leading voted moves for the other team's AI players
+    //(already pondered positions are skipped, so a vote only starts a search when it changes the leaders)
+    private void ponderLeaders() {
+    	if (simEngine != null) return;
+    	ArrayList<Integer> elos = new ArrayList<Integer>();
+    	for (MolePlayer player : teams[getNextTurn()].players) {
+    		if (player.ai && player.isActive() && !elos.contains(player.getElo())) elos.add(player.getElo());
+    	}
+    	String fen = turnFen;
+    	if (elos.isEmpty() || fen == null) return;
+    	for (Move move : tally.leaders(selectionMode, Ponderer.TOP_MOVES)) {
+    		Board next = new Board(); next.loadFromFen(fen);
+    		if (next.doMove(move)) {
+    			String nextFen = next.getFen();
+    			for (int elo : elos) ponderer.ponder(nextFen, elo, getAITime());
+    		}
+    	}
+    }
+    
     private void handleMoleVote(MolePlayer player, MolePlayer p) {
     	player.vote = p;
-		spam(player.user.name + " votes off: " + p.user.name);
+		spam(teamChannel(player.color), player.user.name + " votes off: " + p.user.name);
 		MolePlayer suspect = checkVote(player.color);
+		MoleEvents.MoleVote event = new MoleEvents.MoleVote();
+		if (event.shouldCommit()) {
+			event.game = title; event.voter = player.user.name; event.suspect = p.user.name; event.votedOff = suspect != null;
+			event.commit();
+		}
 		if (suspect != null) {
 			spam(suspect.user.name + " is voted off!");
 			if (suspect.role == MolePlayer.ROLE.MOLE) {
     			spam(suspect.user.name + " was " + "the Mole!");
+				recordStats(suspect, StatsStore.Stats.caughtAsMole());
+				for (MolePlayer p2 : teams[player.color].players) {
+					if (p2.vote == suspect && p2 != suspect) recordStats(p2, StatsStore.Stats.caughtMole());
+				}
 				award(player.color, moleBonus);
 			} 
 			else {
@@ -346,8 +525,10 @@ public class MoleGame implements Runnable {
 				int newColor = getNextTurn(suspect.color);
 				spam(suspect.user.name + " joins " + colorString(newColor));
 				teams[suspect.color].players.remove(suspect);
-				suspect.color = newColor;
-				teams[suspect.color].players.add(suspect);
+				tally.remove(suspect); chat.part(MoleChat.teamRoom(title, suspect.color), suspect.user);
+				suspect.setColor(newColor);
+				teams[suspect.color].players.add(suspect); chat.join(MoleChat.teamRoom(title, newColor), suspect.user);
+				invalidateAudience();
 				listener.updateAll();
 			}
 			else suspect.votedOff = true;
@@ -361,22 +542,55 @@ public class MoleGame implements Runnable {
 		}
     }
     
-    private JsonNode historyToJSON() {
+    //only plies added since the last call are replayed; players are added as they are now (score, away)
+    JsonNode historyToJSON() {
     	ObjectNode node = MoleServ.mapper.createObjectNode();
     	ArrayNode historyNode = MoleServ.mapper.createArrayNode();
-    	for (MoveVotes votes : moveHistory) historyNode.add(votes.toJSON());    		
+    	synchronized (replayed) {
+    		for (Iterator<MoveHistory.Ply> i = history.iterator(replayed.size()); i.hasNext(); ) replayed.add(i.next());
+    		for (MoveHistory.Ply ply : replayed) historyNode.add(ply.toJSON());
+    	}
     	node.set("history",historyNode);
     	node.put("title",title); //log("Move History: " + node.toPrettyString());
     	return node;
     }
     
+    //each team decision with the position it was made in, for post-game analysis
+    private ArrayList<MoleAnalysis.Ply> getPlies() {
+    	ArrayList<MoleAnalysis.Ply> plies = new ArrayList<MoleAnalysis.Ply>();
+    	for (MoveHistory.Ply decision : history) {
+    		MoleAnalysis.Ply ply = new MoleAnalysis.Ply(decision.fenBefore, decision.color, decision.move);
+    		for (int i = 0; i < decision.votes.length; i++) ply.votes.put(decision.voters[i].user.name, decision.votes[i]);
+    		plies.add(ply);
+    	}
+    	return plies;
+    }
+    
+    private HashSet<String> getMoles() {
+    	HashSet<String> moles = new HashSet<String>();
+    	for (int color = 0; color <= 1; color++) {
+    		for (MolePlayer player : teams[color].players) if (player.role == MolePlayer.ROLE.MOLE) moles.add(player.user.name);
+    	}
+    	return moles;
+    }
+    
+	private void joinChat(MolePlayer player) {
+		chat.join(MoleChat.gameRoom(title), player.user); chat.join(MoleChat.teamRoom(title, player.color), player.user);
+	}
+	
+	private void partChat(MolePlayer player) {
+		if (!observers.contains(player.user)) chat.part(MoleChat.gameRoom(title), player.user);
+		chat.part(MoleChat.teamRoom(title, player.color), player.user);
+	}
+	
 	private MolePlayer getPlayer(MoleUser user) {
-		for (int color = 0; color <= 1; color++) {
-			for (MolePlayer player : teams[color].players) {
-				if (player.user.equals(user)) return player; 
-			}
-		} 
-		return null;
+		return players.get(user);
+	}
+	
+	//drops this game from its users' indexes once it's over
+	public void releaseUsers() {
+		for (MoleUser user : players.keySet()) user.removeGame(this);
+		for (MoleUser user : observers) user.removeGame(this);
 	}
   
 	private MolePlayer getPlayer(String name, int color) {
@@ -396,16 +610,19 @@ public class MoleGame implements Runnable {
 	}
 	
     private boolean newPhase(GAME_PHASE p, int countdown) {
-    	phase = p; spam("phase", phase.toString());
+    	phase = p; invalidateAudience(); listener.changed(this); spam("phase", phase.toString());
     	boolean timeout = true;
+    	phaseEnd = clock.now() + (countdown * 1000L);
+    	MoleEvents.Phase event = new MoleEvents.Phase(); event.begin();
     	if (countdown > 0) {
     		spam("countdown", "" + countdown);
-    		try {
-    			Thread.sleep((countdown * 1000));
-    		} catch (InterruptedException e) {
-    			timeout = false;
-    		} 
+    		timeout = clock.sleep(countdown * 1000L);
     	} 
+    	event.end();
+    	if (event.shouldCommit()) {
+    		event.game = title; event.phase = p.toString(); event.countdown = countdown; event.timeout = timeout;
+    		event.commit();
+    	}
     	if (playing) endgameCheck();
     	return timeout;
     }
@@ -421,6 +638,7 @@ public class MoleGame implements Runnable {
     }
     
     public void endGame(int winner, String reason) {
+    	if (playing) for (MolePlayer p : players.values()) recordStats(p, StatsStore.Stats.played(p.color == winner));
     	if (winner != COLOR_UNKNOWN) {
     		spam(colorString(winner) + " wins by " + reason + "!"); 
     		award(winner,winBonus);
@@ -435,19 +653,18 @@ public class MoleGame implements Runnable {
     ////new MolePlayer(MoleServ.DUMMIES[i++][color], this, color, nextGUIColor());
     private void aiFill(int color) {
     	while (teams[color].players.size() < minPlayers) {
-    		int n = (int)Math.floor(Math.random() * MOLE_NAMES.size());
+    		String name = MOLE_NAMES.isEmpty() ? "Bot" + players.size() : MOLE_NAMES.get(rnd.nextInt(MOLE_NAMES.size()));
         	MolePlayer player = new MolePlayer(
-        			new MoleUser(null,null,MOLE_NAMES.get(n)),this,color,nextGUIColor());
+        			new MoleUser(null,null,name),this,color,nextGUIColor());
         	player.ai = true;
-        	teams[color].players.add(player);
+        	teams[color].players.add(player); players.put(player.user, player);
     	}
     }
     
     private void setMole(int color) {
-    	int p = (int)Math.floor(Math.random() * teams[color].players.size());
+    	int p = rnd.nextInt(teams[color].players.size());
     	MolePlayer player = teams[color].players.get(p);
     	player.role = MolePlayer.ROLE.MOLE;
-    	player.user.tell("You're the mole!"); player.user.tell("mole","");
     }
   
     private int activePlayers(int color, boolean ignoreAI) {
@@ -465,6 +682,14 @@ public class MoleGame implements Runnable {
     	return active;
     }
   
+    private String selectionString(MoveTally.SELECTION_MODE mode) {
+    	switch (mode) {
+    		case PLURALITY: return "Picking the most popular";
+    		case WEIGHTED: return "Picking the best supported";
+    		default: return "Picking randomly";
+    	}
+    }
+    
     private String colorString(int color) {
     	return (color == COLOR_BLACK) ? "Black" : "White";
     }
@@ -474,57 +699,36 @@ public class MoleGame implements Runnable {
     	if (color == COLOR_WHITE) return COLOR_BLACK; else return COLOR_WHITE;
     }
     
-    private String listMoves(int color) {
-    	String list = ""; 
-    	for (MolePlayer player : teams[color].players) {
-    		if (player.move != null) list += (player.user.name + ": " + player.move + "\n");	
-    	}
-    	return list;
-    }
-    
     private Move pickMove(List<Move> moves) {
-    	int n = (int)(Math.random() * moves.size()); return moves.get(n);
+    	return moves.get(rnd.nextInt(moves.size()));
     }
   
     private boolean addVote(MolePlayer player, Move move) {
     	if (board.legalMoves().contains(move)) {
-    		player.move = move;
-    		if (countMoveVotes(player.color) >= activePlayers(turn,true)) gameThread.interrupt();
+    		tally.vote(player, move);
+    		ponderLeaders();
+    		if (tally.isDecided(selectionMode, teams[turn].players) || (simEngine == null && fillCachedVotes())) gameThread.interrupt();
         	return true;
     	}
     	else return false;
     }
     
-    private int countMoveVotes(int color) {
-    	int count = 0; 
-    	for (MolePlayer player : teams[color].players) if (player.move != null) count++;
-    	return count;
-    }
-    
-    private void clearMoveVotes(int color) {
-    	for (MolePlayer player : teams[color].players) player.move = null;
-    }
-    
-    private ArrayList<Move> getMoveVotes(int color) {
-    	ArrayList<Move> moveList = new ArrayList<Move>();
-    	for (MolePlayer player : teams[color].players) if (player.move != null) moveList.add(player.move);
-    	return moveList;
-    }
-    
-    private MoveVotes getMoveVotes(int color, String fen, Move selectedMove) {
-    	ArrayList<MoveVote> voteList = new ArrayList<MoveVote>();
-    	boolean selected = false;
-    	for (MolePlayer player : teams[color].players) {
-    		if (player.move != null) {
-    			MoveVote mv = new MoveVote(player,player.move);
-    			if (player.move == selectedMove) { selected = true; mv.selected = true;	}
-    			voteList.add(mv); 
+    //once every human has voted, AI players whose move is already known vote at once
+    private boolean fillCachedVotes() {
+    	String fen = turnFen;
+    	ArrayList<MolePlayer> pending = new ArrayList<MolePlayer>();
+    	ArrayList<Move> moves = new ArrayList<Move>();
+    	for (MolePlayer player : teams[turn].players) {
+    		if (player.isActive() && !tally.hasVoted(player)) {
+    			if (!player.ai) return false;
+    			String known = player.getKnownMove(fen, false);
+    			Move move = known == null ? null : getMove(known);
+    			if (move == null) return false;
+    			pending.add(player); moves.add(move);
     		}
     	}
-    	if (!selected) {
-    		MoveVote mv = new MoveVote(null,selectedMove); mv.selected = true; voteList.add(mv);
-    	}
-    	return new MoveVotes(voteList,fen,color);
+    	for (int i = 0; i < pending.size(); i++) tally.vote(pending.get(i), moves.get(i));
+    	return tally.isDecided(selectionMode, teams[turn].players);
     }
     
     private Move getMove(String movestr) {
@@ -532,7 +736,7 @@ public class MoleGame implements Runnable {
         	return new Move(movestr,turn == COLOR_BLACK ? Side.BLACK : Side.WHITE);
     	}
     	catch (IllegalArgumentException oops) { 
-    		log(oops.getMessage()); return null;
+    		MoleLog.log(Level.INFO, title, null, "Bad move {}: {}", movestr, oops.getMessage()); return null;
     	}
     }
   
@@ -579,41 +783,69 @@ public class MoleGame implements Runnable {
   
     private void award(MolePlayer player, int bonus) {
     	if (player.isActive()) {
-    		player.score += bonus;
+    		player.addScore(bonus); recordStats(player, StatsStore.Stats.scored(bonus));
     		spam(player.user.name + " gets " + bonus + " points");
     	} 
     }
   
+    private void recordStats(MolePlayer player, StatsStore.Stats delta) {
+    	if (!player.ai) listener.recordStats(player, delta);
+    }
+  
     private void spam(String msg) { spam("chat", msg); }
-    private void spam(String type, String msg) {
+    private void spam(CHANNEL channel, String msg) { spam(channel, "chat", msg); }
+    private void spam(String type, String msg) { spam(CHANNEL.PUBLIC, type, msg); }
+    private void spam(CHANNEL channel, String type, String msg) {
     	ObjectNode node = MoleServ.mapper.createObjectNode();
     	node.put("msg", msg);
     	node.put("source",title);
     	node.put("player","");
-    	spam(type,node);
-    }
-    public void spam(String type, JsonNode node) {
-    	try {
-    	   	for (int c = 0; c <= 1; c++) {
-        		for (MolePlayer player : teams[c].players) {
-        			if (!player.away) player.user.tell(type, node); 
-        		} 
-        	} 
+    	spam(channel,type,node);
+    }
+    public void spam(String type, JsonNode node) { spam(CHANNEL.PUBLIC, type, node); }
+    public void spam(CHANNEL channel, String type, JsonNode node) {
+    	Audience recipients = getAudience();
+    	if (recipients.everyone.length == 0) return;
+    	MoleEvents.Broadcast event = new MoleEvents.Broadcast(); event.begin();
+    	JsonNode encoded = MoleServ.encode(node);
+    	MoleUser[] users = recipients.get(channel);
+    	for (MoleUser user : users) user.tell(type, encoded);
+    	MoleEvents.commit(event, type, title, users.length, encoded);
+    	if ((channel == CHANNEL.TEAM_BLACK || channel == CHANNEL.TEAM_WHITE) && recipients.spectators.length > 0) {
+    		delayer.schedule(() -> { 
+    			for (MoleUser user : recipients.spectators) user.tell(type, encoded); 
+    		}, SPECTATOR_DELAY, TimeUnit.SECONDS);
     	}
-    	catch (ConcurrentModificationException oops) { //dunno how exactly this happens...
-    		log(oops.getMessage()); 
+    }
+    
+    private CHANNEL teamChannel(int color) { return color == COLOR_BLACK ? CHANNEL.TEAM_BLACK : CHANNEL.TEAM_WHITE; }
+    
+    private void invalidateAudience() { audienceVersion.incrementAndGet(); }
+    
+    private boolean hasAudience() { return getAudience().everyone.length > 0; }
+    
+    //an audience is only used while no roster change happened since it was built, so a slow build can't overwrite a newer one
+    private Audience getAudience() {
+    	while (true) {
+    		long version = audienceVersion.get();
+    		Audience current = audience;
+    		if (current != null && current.version == version) return current;
+    		try {
+    			current = new Audience(version); audience = current;
+    			if (audienceVersion.get() == version) return current;
+    		}
+    		catch (ConcurrentModificationException oops) { //roster changed mid-build, try again
+    			MoleLog.log(Level.FINE, title, null, "Audience rebuilt: {}", oops); 
+    		}
     	}
-    	for (MoleUser user : observers) user.tell(type, node);
     }
     
     private Color nextGUIColor() {
     	currentGUIHue += .3; if (currentGUIHue > 1) currentGUIHue--; //log("Current Hue: " + currentGUIHue);
     	return Color.getHSBColor(currentGUIHue, 
-  			(2.5f + ((float)Math.random() * 7.5f))/10, (5 + ((float)Math.random() * 5))/10);
+  			(2.5f + ((float)rnd.nextDouble() * 7.5f))/10, (5 + ((float)rnd.nextDouble() * 5))/10);
     }
     
-    private static void log(String msg) { MoleServ.log(msg); }
-    
     private static ArrayList<String> getRandomNames(String filename) {
     	ArrayList<String> names = new ArrayList<String>();
     	java.io.File file = new java.io.File(filename);
@@ -623,8 +855,8 @@ public class MoleGame implements Runnable {
 	    	while (scanner.hasNextLine()) names.add(scanner.nextLine());
 	    	scanner.close();
 		} 
-		catch (FileNotFoundException e) { log(e.getMessage()); }
-		log("Names: " + names.size());
+		catch (FileNotFoundException e) { MoleLog.warn("No names file: {}", e.getMessage()); }
+		MoleLog.info("Names: {}", names.size());
     	return names;
     }
 
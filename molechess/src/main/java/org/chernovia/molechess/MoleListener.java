@@ -4,5 +4,7 @@ public interface MoleListener {
 	public void started(MoleGame game);
 	public void handleAction(MoleUser user, MoleResult action);
 	public void updateAll();
+	public void changed(MoleGame game); //phase, seats or observers
+	public void recordStats(MolePlayer player, StatsStore.Stats delta);
 	public void finished(MoleGame game);
 }
@@ -0,0 +1,108 @@
+package org.chernovia.molechess;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Asynchronous logging for game and network threads.
+ * Callers check the level and claim a slot in a lock-free ring; formatting ("{}" placeholders),
+ * timestamps and the java.util.logging call all happen on a single daemon writer thread.
+ * When the ring is full the entry is dropped and counted (log_dropped) rather than waited for.
+ * Each entry may carry a game and a user, written as game=... user=... fields.
+ */
+public class MoleLog {
+
+	static final Logger logger = Logger.getLogger("MoleLog");
+	static final int SIZE = 8192; //power of two
+	static long IDLE_NANOS = 5_000_000;
+
+	private static class Entry {
+		volatile long seq;
+		Level level;
+		long time;
+		String thread, game, user, format;
+		Object[] args;
+		Entry(long s) { seq = s; }
+	}
+
+	private static final Entry[] ring = new Entry[SIZE];
+	private static final int MASK = SIZE - 1;
+	private static final AtomicLong tail = new AtomicLong(); //next slot to claim
+	private static long head = 0; //next slot to write out, guarded by the class lock
+
+	static {
+		for (int i = 0; i < SIZE; i++) ring[i] = new Entry(i);
+		Thread writer = new Thread(MoleLog::drain, "MoleLog"); writer.setDaemon(true); writer.start();
+		Runtime.getRuntime().addShutdownHook(new Thread(MoleLog::flush));
+	}
+
+	public static boolean isLoggable(Level level) { return logger.isLoggable(level); }
+
+	public static void info(String format, Object... args) { log(Level.INFO, null, null, format, args); }
+	public static void warn(String format, Object... args) { log(Level.WARNING, null, null, format, args); }
+	public static void severe(String format, Object... args) { log(Level.SEVERE, null, null, format, args); }
+	public static void debug(String format, Object... args) { log(Level.FINE, null, null, format, args); }
+
+	/**
+	 * Queues an entry without blocking. Arguments are formatted later, so they should not be mutated afterwards.
+	 * @param game game title for context, or null
+	 * @param user user name for context, or null
+	 */
+	public static void log(Level level, String game, String user, String format, Object... args) {
+		if (!logger.isLoggable(level)) return;
+		long pos = tail.get();
+		Entry entry;
+		while (true) {
+			entry = ring[(int)(pos & MASK)];
+			long dif = entry.seq - pos;
+			if (dif == 0) { if (tail.compareAndSet(pos, pos + 1)) break; pos = tail.get(); }
+			else if (dif < 0) { MoleMetrics.count(MoleMetrics.LOG_DROPPED); return; } //full
+			else pos = tail.get();
+		}
+		entry.level = level; entry.time = System.currentTimeMillis(); entry.thread = Thread.currentThread().getName();
+		entry.game = game; entry.user = user; entry.format = format; entry.args = args;
+		entry.seq = pos + 1; //publish
+	}
+
+	private static void drain() {
+		while (true) {
+			if (!writeNext()) LockSupport.parkNanos(IDLE_NANOS);
+		}
+	}
+
+	private static synchronized void flush() { while (writeNext()) ; }
+
+	private static synchronized boolean writeNext() {
+		Entry entry = ring[(int)(head & MASK)];
+		if (entry.seq != head + 1) return false;
+		String line = format(entry);
+		Level level = entry.level;
+		entry.args = null; entry.format = null; entry.game = null; entry.user = null; entry.thread = null;
+		entry.seq = head + SIZE; //free the slot
+		head++;
+		logger.log(level, line);
+		return true;
+	}
+
+	private static String format(Entry entry) {
+		StringBuilder line = new StringBuilder(64);
+		if (entry.game != null) line.append("game=").append(entry.game).append(' ');
+		if (entry.user != null) line.append("user=").append(entry.user).append(' ');
+		String format = entry.format;
+		int argIndex = 0, from = 0;
+		for (int i = format.indexOf("{}"); i >= 0; i = format.indexOf("{}", from)) {
+			line.append(format, from, i);
+			line.append(entry.args != null && argIndex < entry.args.length ? entry.args[argIndex++] : "{}");
+			from = i + 2;
+		}
+		line.append(format, from, format.length());
+		line.append(" [").append(entry.thread).append("] (")
+			.append(LocalDateTime.ofInstant(Instant.ofEpochMilli(entry.time), ZoneId.systemDefault())).append(")");
+		return line.toString();
+	}
+}
@@ -0,0 +1,84 @@
+package org.chernovia.molechess;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.chernovia.lib.chess.EngineSupervisor;
+
+/**
+ * Server wide counters and timings, cheap enough to update from any thread.
+ */
+public class MoleMetrics {
+	public static final String TURN_MS = "turn_ms";
+	public static final String MOVE_CACHE_HIT = "move_cache_hit", MOVE_CACHE_MISS = "move_cache_miss";
+	public static final String ENGINE_QUEUE_DEPTH = "engine_queue_depth", ENGINE_WAIT_MS = "engine_wait_ms";
+	public static final String ENGINE_FALLBACK = "engine_fallback";
+	public static final String ENGINE_SEARCH_MS = "engine_search_ms", UCI_PARSE_NS = "uci_parse_ns";
+	public static final String ANALYSIS_POSITIONS = "analysis_positions", ANALYSIS_PPS = "analysis_pps";
+	public static final String ANALYSIS_DROPPED = "analysis_dropped";
+	public static final String BOOK_HIT = "book_hit";
+	public static final String RESUME_REPLAY = "resume_replay", RESUME_SNAPSHOT = "resume_snapshot";
+	public static final String PONDER_STARTED = "ponder_started", PONDER_HIT = "ponder_hit";
+	public static final String HISTORY_BYTES = "history_bytes";
+	public static final String RATE_LIMITED = "rate_limited", FRAME_TOO_LARGE = "frame_too_large", RATE_DISCONNECT = "rate_disconnect";
+	public static final String LOG_DROPPED = "log_dropped";
+	public static final String STATS_BATCHES = "stats_batches", STATS_CHANGES = "stats_changes";
+	public static final String CONFIG_RELOADS = "config_reloads";
+	
+	static class Stat {
+		private final LongAdder count = new LongAdder(), total = new LongAdder();
+		private final AtomicLong max = new AtomicLong();
+		void add(long value) {
+			count.increment(); total.add(value); max.accumulateAndGet(value, Math::max);
+		}
+		JsonNode toJSON() {
+			ObjectNode node = MoleServ.mapper.createObjectNode();
+			long n = count.sum(), sum = total.sum();
+			node.put("count", n);
+			node.put("mean", n > 0 ? sum / (double)n : 0);
+			node.put("max", max.get());
+			return node;
+		}
+	}
+	
+	private static final ConcurrentHashMap<String, Stat> stats = new ConcurrentHashMap<>();
+	private static final ConcurrentHashMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+	
+	public static void count(String name) { count(name, 1); }
+	public static void count(String name, long n) {
+		counters.computeIfAbsent(name, k -> new LongAdder()).add(n);
+	}
+	
+	public static void record(String name, long value) {
+		stats.computeIfAbsent(name, k -> new Stat()).add(value);
+	}
+	
+	public static long getCount(String name) {
+		LongAdder counter = counters.get(name); return counter == null ? 0 : counter.sum();
+	}
+	
+	public static JsonNode toJSON() {
+		ObjectNode node = MoleServ.mapper.createObjectNode();
+		for (Map.Entry<String, LongAdder> entry : new TreeMap<>(counters).entrySet()) {
+			node.put(entry.getKey(), entry.getValue().sum());
+		}
+		for (Map.Entry<String, Stat> entry : new TreeMap<>(stats).entrySet()) {
+			node.set(entry.getKey(), entry.getValue().toJSON());
+		}
+		EngineSupervisor supervisor = EngineSupervisor.DEFAULT;
+		ObjectNode processes = node.putObject("engine_processes");
+		processes.put("running", supervisor.getRunning());
+		processes.put("spawned", supervisor.getSpawned());
+		processes.put("spawn_failures", supervisor.getSpawnFailures());
+		processes.put("exits", supervisor.getExits());
+		processes.put("crashes", supervisor.getCrashes());
+		processes.put("hung_kills", supervisor.getHungKills());
+		processes.put("memory_kills", supervisor.getMemoryKills());
+		node.set("config", MoleConfig.toJSON());
+		return node;
+	}
+}
@@ -3,7 +3,6 @@ package org.chernovia.molechess;
 import java.awt.Color;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
-import com.github.bhlangonijr.chesslib.move.Move;
 
 public class MolePlayer implements StockListener {
 	
@@ -17,6 +16,7 @@ public class MolePlayer implements StockListener {
     		//new Color(200,128,192), new Color(128,192,200), new Color(192,200,128) 
     };
    	enum ROLE { MOLE, PLAYER };
+    static volatile int PLAYER_ELO = 2200, MOLE_ELO = 1600; //engine strength when searching for each role, see MoleConfig
 	MoleGame game;
   	MoleUser user;
    	boolean away = false;
@@ -25,16 +25,22 @@ public class MolePlayer implements StockListener {
   	boolean resigning = false;
     int score;
     int color;
-    Move move = null;
     MolePlayer vote = null;
     ROLE role = ROLE.PLAYER;
     Color guiColor = Color.BLUE;
+    private final String playCol;
+    private volatile JsonNode json = null; //encoded fragment, dropped whenever a serialized field changes
   
   //TODO: fix color assignment bug when player rejoins
   public MolePlayer(MoleUser usr, MoleGame g, int c, Color c2) {
     user = usr; game = g; color = c; guiColor = c2; score = 0;
+    playCol = rgbToHex(guiColor.getRed(),guiColor.getGreen(),guiColor.getBlue());
   }
   
+  void setAway(boolean a) { away = a; json = null; }
+  void setColor(int c) { color = c; json = null; }
+  void addScore(int points) { score += points; json = null; }
+  
   public boolean isActive() {
 	  return (!away && !votedOff);
   }
@@ -43,27 +49,55 @@ public class MolePlayer implements StockListener {
 	  return isActive() && !ai;
   }
   
+  public double voteWeight() { //for weighted move selection: points earned make a vote count more
+	  return 1 + (Math.max(score, 0) / 100.0);
+  }
+  
   public JsonNode toJSON() {
-    ObjectNode obj = MoleServ.mapper.createObjectNode();
-    obj.put("score", score);
-    obj.put("game_col", color);
-    obj.put("play_col", rgbToHex(guiColor.getRed(),guiColor.getGreen(),guiColor.getBlue()));
-    obj.put("away", away);
-    obj.set("user", user.toJSON());
-    return obj;
+    JsonNode node = json;
+    if (node == null) {
+    	ObjectNode obj = MoleServ.mapper.createObjectNode();
+    	obj.put("score", score);
+    	obj.put("game_col", color);
+    	obj.put("play_col", playCol);
+    	obj.put("away", away);
+    	obj.set("user", user.toJSON());
+    	json = node = MoleServ.encode(obj);
+    }
+    return node;
   }
   
   private String rgbToHex(int r, int g, int b) {
 	  return String.format("#%02x%02x%02x", r, g, b).toUpperCase();  
   }
   
+  public int getElo() {
+	  return role == ROLE.PLAYER ? PLAYER_ELO : MOLE_ELO;
+  }
+  
+  /**
+   * @return a move from the opening book or the move cache, without searching
+   */
+  public String getKnownMove(String fen) { return getKnownMove(fen, true); }
+  
+  /**
+   * @param counted false for probes, which shouldn't show up in the book and cache metrics
+   */
+  public String getKnownMove(String fen, boolean counted) {
+	  String move = MoleServ.book.getMove(fen, getElo());
+	  if (move != null) { if (counted) MoleMetrics.count(MoleMetrics.BOOK_HIT); return move; }
+	  return counted ? MoleServ.moveCache.get(fen, getElo()) : MoleServ.moveCache.peek(fen, getElo());
+  }
+  
   public void analyzePosition(String fen, int t) {
-	  new StockThread(this,fen,t,role == ROLE.PLAYER ? 2200 : 1600).start();
+	  String move = getKnownMove(fen);
+	  if (move != null) newStockMove(move);
+	  else MoleServ.engines.submit(this,game,fen,t,getElo(),EngineScheduler.PRIORITY.LIVE);
   }
 
   @Override
   public void newStockMove(String move) {
-  	game.voteMove(this, move);
+  	if (move != null) game.voteMove(this, move); //null if the search failed
   }
 
 }
@@ -6,15 +6,23 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.POJONode;
 
-import java.time.LocalDateTime;
 import java.util.ArrayList;
-import java.util.ConcurrentModificationException;
-import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
-import java.util.logging.Logger;
 import java.util.regex.Pattern;
+import org.chernovia.lib.chess.EngineSupervisor;
+import org.chernovia.lib.chess.OpeningBook;
+import org.chernovia.lib.chess.RemoteEngines;
 import org.chernovia.lib.lichess.LichessSDK;
 import org.chernovia.lib.zugserv.*;
 import org.chernovia.lib.zugserv.web.*;
@@ -30,57 +38,103 @@ import org.chernovia.lib.zugserv.web.*;
 //
 public class MoleServ extends Thread implements ConnListener, MoleListener {
 	static final ObjectMapper mapper = new ObjectMapper();
-	static final Logger logger = Logger.getLogger("MoleLog");
+	static final MoveCache moveCache = new MoveCache(4096);
 	static Pattern alphanumericPattern = Pattern.compile("^[a-zA-Z0-9]*$");
-	static int MAX_STR_LEN = 30, MAX_USER_GAMES = 3, DEF_MOVE_TIME = 12;
+	static volatile int MAX_STR_LEN = 30, MAX_USER_GAMES = 3, DEF_MOVE_TIME = 12, PURGE_FREQ = 30; //see MoleConfig
 	static boolean TESTING = false;
 	static String STOCK_PATH = "stockfish/stockfish";
-	private ArrayList<MoleUser> users = new ArrayList<>();
-	private HashMap<String, MoleGame> games = new HashMap<>();
+	static OpeningBook book = OpeningBook.open("resources/book.bin");
+	static String STATS_PATH = "molestats.jsonl";
+	static volatile int ENGINE_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() - 1), ENGINE_HASH = 256;
+	static final EngineScheduler engines = new EngineScheduler(ENGINE_THREADS, ENGINE_HASH);
+	static final MoleAnalysis analysis = new MoleAnalysis();
+	private final CopyOnWriteArrayList<MoleUser> users = new CopyOnWriteArrayList<>(); //read far more often than changed
+	private ConcurrentHashMap<Connection, MoleUser> connections = new ConcurrentHashMap<>();
+	private ConcurrentHashMap<String, MoleUser> tokens = new ConcurrentHashMap<>();
+	private ConcurrentHashMap<Connection, RateLimits> limits = new ConcurrentHashMap<>();
+	private ConcurrentHashMap<String, MoleGame> games = new ConcurrentHashMap<>(); //also read by game, lobby, replay and config threads
+	private MoleChat chat = new MoleChat();
+	private GameIndex index = new GameIndex();
+	private StatsStore stats = new StatsStore(STATS_PATH);
+	private ReplayService replays = new ReplayService(title -> {
+		MoleGame game = games.get(title); return game == null ? null : game.getHistory();
+	});
 	private ZugServ serv;
-	private int purgeFreq = 30;
+	static volatile int LOBBY_UPDATE_MS = 250;
+	private final AtomicBoolean lobbyDirty = new AtomicBoolean(false);
+	private final ScheduledExecutorService lobbyUpdater = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread t = new Thread(r, "LobbyUpdater"); t.setDaemon(true); return t;
+	});
 	boolean running = false;
 	
-	public static void log(String msg) { log(Level.INFO,msg);	}
-	public static void log(Level level, String msg) { 
-		logger.log(level,msg + " (" + LocalDateTime.now() + ")"); 
+	/**
+	 * Serializes a node once, so sending it to many users doesn't re-encode it for each of them
+	 * (binary formats are encoded once too, on first use; see WireFormat)
+	 */
+	public static JsonNode encode(JsonNode node) {
+		try {
+			return new POJONode(new WireFormat.Encoded(node, mapper.writeValueAsString(node)));
+		}
+		catch (JsonProcessingException e) { MoleLog.warn("Encoding error: {}", e.getMessage()); return node; }
 	}
 	
-	//TODO: non-kludgy command line options
+	public static void log(String msg) { log(Level.INFO,msg);	}
+	public static void log(Level level, String msg) { MoleLog.log(level, null, null, "{}", msg); }
+	
+	//args: [move time] [stockfish path] [test]; anything set in the config file overrides them
 	public static void main(String[] args) {
-		DEF_MOVE_TIME = Integer.parseInt(args[0]);
-		STOCK_PATH = args[1];
+		if (args.length > 0) DEF_MOVE_TIME = Integer.parseInt(args[0]);
+		if (args.length > 1) STOCK_PATH = args[1];
 		TESTING = (args.length > 2 && args[2].equalsIgnoreCase("test")); 
-		new MoleServ(5555).start();;
+		String workers = System.getProperty("molechess.workers", ""); //e.g. host1:5560,host2:5560
+		if (!workers.isEmpty()) useRemoteEngines(workers);
+		MoleServ serv = new MoleServ(5555);
+		MoleConfig.watch(System.getProperty("molechess.config", "resources/molechess.json"));
+		serv.start();
+	}
+	
+	static void useRemoteEngines(String workers) {
+		RemoteEngines remote = new RemoteEngines(workers);
+		log("Using " + remote.size() + " remote engine workers: " + workers);
+		remote.startHealthChecks();
+		engines.setEngineFactory(remote::newEngine, false);
 	}
 	
 	public MoleServ(int port) {
 		log("Constructing MoleServ on port: " + port);
 		serv = (ZugServ)new WebSockServ(port, this);
 		serv.startSrv();
+		MoleConfig.addListener(this::reconfigure);
+		analysis.setLiveCheck(index::contains);
+		EngineSupervisor.DEFAULT.setKillListener((pid, path, reason) -> MoleLog.warn("Killed engine {} ({}): {}", pid, path, reason));
+	}
+	
+	private void reconfigure(List<MoleConfig.Setting> changed) {
+		boolean engine = false, game = false;
+		for (MoleConfig.Setting setting : changed) {
+			if (setting.group.equals("engine")) engine = true; else if (setting.group.equals("game")) game = true;
+		}
+		if (engine) engines.setBudget(ENGINE_THREADS, ENGINE_HASH);
+		if (game) for (MoleGame g : new ArrayList<MoleGame>(games.values())) g.reconfigure();
 	}
 	
 	private MoleUser getUserByToken(String token) {
-		for (MoleUser user : users) if (user.oauth.equals(token)) return user; 
-		return null;
+		return token == null ? null : tokens.get(token);
 	}
 	
 	private MoleUser getUser(Connection conn) {
-		for (MoleUser user : users) if (user.sameConnection(conn)) return user; 
-		return null;
+		return connections.get(conn);
+	}
+	
+	private void addUser(MoleUser user) {
+		users.add(user); tokens.put(user.oauth, user); connections.put(user.getConn(), user);
+		chat.join(MoleChat.LOBBY, user);
 	}
 	
 	private ArrayNode getAllGames() {
-		try {
-			ArrayNode gameObj = mapper.createArrayNode();
-			for (Map.Entry<String, MoleGame> entry : games.entrySet()) {
-				gameObj.add(((MoleGame)entry.getValue()).toJSON()); 
-			}
-			return gameObj;
-		}
-		catch (ConcurrentModificationException fuck) { 
-			log(Level.SEVERE,fuck.getMessage()); return null; 
-		}
+		ArrayNode gameObj = mapper.createArrayNode();
+		for (MoleGame game : games.values()) gameObj.add(game.toJSON()); //weakly consistent, never throws
+		return gameObj;
 	}
 	  
 	private boolean validString(String str) {
@@ -100,7 +154,7 @@ public class MoleServ extends Thread implements ConnListener, MoleListener {
 	}
   
 	private void newGame(MoleUser creator, String title) {
-		if (validString(title)) {
+		if (validString(title) && !title.equalsIgnoreCase(MoleChat.LOBBY)) {
 			if (games.containsKey(title)) {
 				creator.tell(WebSockServ.MSG_ERR, "Failed to create game: title already exists");
 			}
@@ -109,8 +163,8 @@ public class MoleServ extends Thread implements ConnListener, MoleListener {
 						"Failed to create game: too many games (" + MoleServ.MAX_USER_GAMES + ")");
 			}
 			else {
-				MoleGame game = new MoleGame(creator, title, this); game.setMoveTime(DEF_MOVE_TIME);
-				games.put(title, game);
+				MoleGame game = new MoleGame(creator, title, this, chat); game.setMoveTime(DEF_MOVE_TIME);
+				games.put(title, game); index.add(game);
 				updateAll();
 			}
 		} 
@@ -120,16 +174,30 @@ public class MoleServ extends Thread implements ConnListener, MoleListener {
 	}
     
 	public void newMsg(Connection conn, int channel, String msg) { //log("NewMsg: " + msg);
+		MoleEvents.Command event = new MoleEvents.Command(); event.begin();
+		String command = null;
 		try {
+			RateLimits limiter = limits.get(conn);
+			if (limiter == null) return; //arrived after disconnected(), which would leak a new limiter
+			if (!admit(conn, limiter, limiter.checkFrame(msg))) return;
 			MoleUser user = getUser(conn);
 			JsonNode msgNode = mapper.readTree(msg);
-			JsonNode typeNode = msgNode.get("type"), dataNode = msgNode.get("data");
+			JsonNode typeNode = msgNode == null ? null : msgNode.get("type"), dataNode = msgNode == null ? null : msgNode.get("data");
 			if (typeNode == null || dataNode == null) {
 				conn.tell(WebSockServ.MSG_ERR, "Error: Bad Data(null)"); return;
 			}
-			String typeTxt = typeNode.asText(), dataTxt = dataNode.asText();
+			String typeTxt = typeNode.asText(), dataTxt = dataNode.asText(); command = typeTxt;
+			if (!admit(conn, limiter, limiter.checkCommand(typeTxt))) return;
 			if (typeTxt.equals("login")) {
-				handleLogin(conn,dataTxt,MoleServ.TESTING);
+				if (dataNode.isObject()) { //{token, resume, seq, format}
+					JsonNode tokenNode = dataNode.get("token"), resumeNode = dataNode.get("resume"), seqNode = dataNode.get("seq");
+					handleLogin(conn, tokenNode == null ? null : tokenNode.asText(), MoleServ.TESTING, 
+							resumeNode != null && resumeNode.asBoolean(), seqNode == null ? -1 : seqNode.asLong());
+					JsonNode formatNode = dataNode.get("format");
+					MoleUser loggedIn = getUser(conn);
+					if (formatNode != null && loggedIn != null) loggedIn.switchFormat(WireFormat.parse(formatNode.asText()));
+				}
+				else handleLogin(conn,dataTxt,MoleServ.TESTING,false,-1);
 			} 
 			else if (user == null) {
 				conn.tell(WebSockServ.MSG_ERR, "Please log in");
@@ -144,10 +212,11 @@ public class MoleServ extends Thread implements ConnListener, MoleListener {
 				else { game.addObserver(user); } 
 			}
 			else if (typeTxt.equals("joingame")) {
-				String title = dataNode.get("title").asText();
-				int color = dataNode.get("color").asInt();
+				String title = dataNode.path("title").asText();
+				int color = dataNode.path("color").asInt(MoleGame.COLOR_UNKNOWN);
 				MoleGame game = games.get(title);
 				if (game == null) { user.tell(WebSockServ.MSG_ERR, "Game does not exist");	} 
+				else if (color != MoleGame.COLOR_BLACK && color != MoleGame.COLOR_WHITE) { user.tell(WebSockServ.MSG_ERR, "Bad color"); }
 				else { game.addPlayer(user, color);	} 
 			} 
 			else if (typeTxt.equals("partgame")) {
@@ -170,7 +239,7 @@ public class MoleServ extends Thread implements ConnListener, MoleListener {
 						user.tell(WebSockServ.MSG_ERR, "Game not found: " + title);
 					} 
 					else {
-						game.voteMove(user, move.asText() + (prom.isNull() ? "" : prom.asText()));
+						game.voteMove(user, move.asText() + (prom == null || prom.isNull() ? "" : prom.asText()));
 					} 
 				} 
 				else {
@@ -202,15 +271,57 @@ public class MoleServ extends Thread implements ConnListener, MoleListener {
 					game.resign(user);
 				}
 			}
+			else if (typeTxt.equals("games_query")) {
+				ObjectNode response = mapper.createObjectNode();
+				MoleResult result = index.query(dataNode, response);
+				if (result.result) user.tell("games_query", response);
+				else user.tell(WebSockServ.MSG_ERR, result.message);
+			}
+			else if (typeTxt.equals("replay_seek")) {
+				ObjectNode response = mapper.createObjectNode();
+				MoleResult result = replays.seek(dataNode, response);
+				if (result.result) user.tell("replay_seek", response);
+				else user.tell(WebSockServ.MSG_ERR, result.message);
+			}
+			else if (typeTxt.equals("replay_watch")) {
+				MoleResult result = replays.watch(user, dataNode);
+				if (!result.result) user.tell(WebSockServ.MSG_ERR, result.message);
+				else user.tell(result.message);
+			}
+			else if (typeTxt.equals("replay_stop")) {
+				replays.unwatch(user);
+			}
+			else if (typeTxt.equals("leaderboard")) {
+				user.tell("leaderboard", stats.getTop(dataNode.path("from").asInt(0), dataNode.path("count").asInt(10)));
+			}
+			else if (typeTxt.equals("stats")) {
+				String name = dataNode.path("name").asText(user.name);
+				ObjectNode playerStats = stats.getStats(name);
+				if (playerStats != null) user.tell("stats", playerStats);
+				else user.tell(WebSockServ.MSG_ERR, "No stats for: " + name);
+			}
+			else if (typeTxt.equals("metrics")) {
+				user.tell("metrics", MoleMetrics.toJSON());
+			}
 			else if (typeTxt.equals("chat")) {
 				ObjectNode node = mapper.createObjectNode();
 				node.put("player", user.name);
 				JsonNode chatNode = dataNode.get("msg"); JsonNode sourceNode = dataNode.get("source");
-				if (msgNode != null && sourceNode != null) {
+				JsonNode teamNode = dataNode.get("team");
+				if (chatNode != null && sourceNode != null) {
 					String chatMsg = chatNode.asText("?"); node.put("msg", chatMsg);
 					String source = sourceNode.asText("?"); node.put("source", source);
-					if (source.equals("lobby")) spam("chat", node);
-					else gameChat(source,node);
+					String room = source.equals(MoleChat.LOBBY) ? source : MoleChat.gameRoom(source);
+					if (teamNode != null && teamNode.asBoolean()) {
+						MoleGame game = games.get(source);
+						room = game == null ? null : game.getTeamRoom(user);
+						node.put("team", true);
+					}
+					if (room == null) user.tell(WebSockServ.MSG_ERR, "Team not found");
+					else {
+						MoleResult result = chat.send(user, room, node);
+						if (!result.result) user.tell(WebSockServ.MSG_ERR, result.message);
+					}
 				}
 				else { user.tell(WebSockServ.MSG_ERR, "Bad chat"); }
 			} 
@@ -218,18 +329,35 @@ public class MoleServ extends Thread implements ConnListener, MoleListener {
 				user.tell(WebSockServ.MSG_ERR, "Unknown command");
 			} 
 		} 
-		catch (JsonMappingException e) { log("JSON Mapping goof: " + e.getMessage()); } 
-		catch (JsonProcessingException e) { log("JSON Processing error: " + e.getMessage()); } 
-		catch (NullPointerException e) { e.printStackTrace(); }
+		catch (JsonMappingException e) { MoleLog.info("JSON Mapping goof: {}", e.getMessage()); } 
+		catch (JsonProcessingException e) { MoleLog.info("JSON Processing error: {}", e.getMessage()); } 
+		finally {
+			event.end();
+			if (event.shouldCommit()) {
+				MoleUser user = getUser(conn);
+				event.type = command; event.user = user == null ? null : user.name; event.bytes = msg.length();
+				event.commit();
+			}
+		}
 	}
 	
-	private void gameChat(String title, JsonNode node) {
-		for (Map.Entry<String, MoleGame> entry : games.entrySet()) {
-			MoleGame game = (MoleGame)entry.getValue();
-			if (game.getTitle().equals(title)) game.spam("chat",node);
+	//throttled frames are dropped (with an occasional warning), persistent abusers disconnected
+	private boolean admit(Connection conn, RateLimits limiter, RateLimits.VERDICT verdict) {
+		switch (verdict) {
+			case OK: return true;
+			case THROTTLE: 
+				if (limiter.shouldWarn()) conn.tell(WebSockServ.MSG_ERR, "Slow down!");
+				return false;
+			default:
+				MoleUser user = getUser(conn);
+				MoleLog.log(Level.WARNING, null, user == null ? null : user.name, "Disconnecting flooder: {}", conn);
+				MoleMetrics.count(MoleMetrics.RATE_DISCONNECT);
+				conn.tell(WebSockServ.MSG_ERR, "Too many messages, disconnecting");
+				conn.close();
+				return false;
 		}
 	}
-  	
+	
   	public void spam(String type, String msg) {
   		ObjectNode node = mapper.createObjectNode();
   		node.put("msg", msg);
@@ -237,7 +365,10 @@ public class MoleServ extends Thread implements ConnListener, MoleListener {
   	}
   
   	public void spam(String type, JsonNode node) {
-  		for (MoleUser user : this.users) user.tell(type, node); 
+  		MoleEvents.Broadcast event = new MoleEvents.Broadcast(); event.begin();
+  		JsonNode encoded = encode(node);
+  		for (MoleUser user : this.users) user.tell(type, encoded); 
+  		MoleEvents.commit(event, type, "server", users.size(), encoded);
   	}
   	
 	private void updateUser(MoleUser user) { user.tell("games_update", getAllGames()); }
@@ -246,24 +377,35 @@ public class MoleServ extends Thread implements ConnListener, MoleListener {
 		MoleUser user = getUserByToken(token); 
 		if (user != null) {
 			user.tell("Multiple login detected, closing");
-			user.getConn().close();
-			user.setConn(conn); //users.remove(mu); users.add(newUser);
+			Connection oldConn = user.getConn();
+			connections.remove(oldConn); oldConn.close();
+			user.setConn(conn); connections.put(conn, user);
 			return user;
 		}
 		else return null;
 	}
 	
 	//private void handleLogin(Connection conn, String token) { handleLogin(conn,token,false); }
-	private void handleLogin(Connection conn, String token, boolean testing) {
+	private void handleLogin(Connection conn, String token, boolean testing, boolean sequenced, long lastSeq) {
 		MoleUser relogger = handleRelogging(conn,token);
 		if (relogger != null) {
-			relogger.tell(WebSockServ.MSG_LOG_SUCCESS, "Relog Successful: Welcome back!");
-			updateUser(relogger);
+			relogger.setSequenced(sequenced);
+			if (lastSeq >= 0 && relogger.replay(lastSeq)) {
+				MoleMetrics.count(MoleMetrics.RESUME_REPLAY);
+				relogger.tell(WebSockServ.MSG_LOG_SUCCESS, "Session resumed");
+				resumeGames(relogger, false);
+			}
+			else {
+				if (lastSeq >= 0) MoleMetrics.count(MoleMetrics.RESUME_SNAPSHOT);
+				relogger.tell(WebSockServ.MSG_LOG_SUCCESS, "Relog Successful: Welcome back!");
+				updateUser(relogger);
+				resumeGames(relogger, true);
+			}
 		}
 		else if (testing) {
 			String name = token; if (validString(name)) {
-				MoleUser newUser = new MoleUser(conn, token, name);
-				users.add(newUser);	
+				MoleUser newUser = new MoleUser(conn, token, name); newUser.setSequenced(sequenced);
+				addUser(newUser);
 				newUser.tell(WebSockServ.MSG_LOG_SUCCESS, "Test Login Successful: Welcome!");
 				updateUser(newUser);
 			}
@@ -278,8 +420,8 @@ public class MoleServ extends Thread implements ConnListener, MoleListener {
 			else {
 				JsonNode username = accountData.get("username");
 				if (username != null) {
-					MoleUser newUser = new MoleUser(conn, token, username.asText());
-					users.add(newUser);
+					MoleUser newUser = new MoleUser(conn, token, username.asText()); newUser.setSequenced(sequenced);
+					addUser(newUser);
 					newUser.tell(WebSockServ.MSG_LOG_SUCCESS, "Login Successful: Welcome!");
 					updateUser(newUser);
 				}
@@ -288,6 +430,11 @@ public class MoleServ extends Thread implements ConnListener, MoleListener {
 		}
 	}
 
+	//brings a returning user back into their games, with a full snapshot if their events were lost
+	private void resumeGames(MoleUser user, boolean snapshot) {
+		for (MoleGame game : user.getGames()) { game.resume(user); if (snapshot) game.sendSnapshot(user); }
+	}
+	
 	@Override
 	public void handleAction(MoleUser user, MoleResult action) {
 		if (user != null) {
@@ -301,34 +448,57 @@ public class MoleServ extends Thread implements ConnListener, MoleListener {
 		}
 	}
 	
+	@Override
+	public void changed(MoleGame game) {
+		index.update(game);
+	}
+	
+	@Override
+	public void recordStats(MolePlayer player, StatsStore.Stats delta) {
+		stats.record(player.user.name, delta);
+	}
+	
 	@Override
 	public void started(MoleGame game) {		
 	}
 
 	@Override
 	public void finished(MoleGame game) {
-		games.remove(game.getTitle());
+		games.remove(game.getTitle()); index.remove(game); replays.archive(game);
+		closeChat(game); game.releaseUsers();
 		updateAll();
 	}
 	
+	private void closeChat(MoleGame game) {
+		chat.close(MoleChat.gameRoom(game.getTitle()));
+		for (int c = MoleGame.COLOR_BLACK; c <= MoleGame.COLOR_WHITE; c++) chat.close(MoleChat.teamRoom(game.getTitle(), c));
+	}
+	
 	@Override
-  	public void connected(Connection conn) {}
+  	public void connected(Connection conn) { limits.put(conn, new RateLimits()); }
     
 	@Override
   	public void disconnected(Connection conn) { //TODO: concurrency argh
-  		MoleUser user = getUser(conn);
+  		limits.remove(conn);
+  		MoleUser user = connections.remove(conn);
   		if (user != null) {
-  			for (Map.Entry<String, MoleGame> entry : games.entrySet()) {
-  				MoleGame game = (MoleGame)entry.getValue();
-  				game.dropPlayer(user); 				
-  			}
+  			replays.unwatch(user); chat.forget(user);
+  			for (MoleGame game : user.getGames()) game.dropPlayer(user);
   		}
   		updateAll();
   	}
 	
+	/**
+	 * Schedules a games_update for everyone. Calls within LOBBY_UPDATE_MS of each other 
+	 * share one broadcast, so bursts (e.g. mass disconnects) don't each resend the lobby.
+	 */
 	@Override
 	public void updateAll() {
-		spam("games_update", getAllGames());
+		if (lobbyDirty.compareAndSet(false, true)) {
+			lobbyUpdater.schedule(() -> {
+				lobbyDirty.set(false); spam("games_update", getAllGames());
+			}, LOBBY_UPDATE_MS, TimeUnit.MILLISECONDS);
+		}
 	}
 	
 	public void run() {
@@ -337,10 +507,10 @@ public class MoleServ extends Thread implements ConnListener, MoleListener {
 		while (running) {
 			boolean purged = false;
 			try { 
-				Thread.sleep(purgeFreq * 1000); 
-	  			for (Map.Entry<String, MoleGame> entry : games.entrySet()) {
-	  				MoleGame game = (MoleGame)entry.getValue();
-	  				if (game.isDefunct()) games.remove(entry.getKey()); purged = true;
+				Thread.sleep(PURGE_FREQ * 1000L); 
+	  			for (Iterator<MoleGame> i = games.values().iterator(); i.hasNext(); ) {
+	  				MoleGame game = i.next();
+	  				if (game.isDefunct()) { i.remove(); index.remove(game); closeChat(game); game.releaseUsers(); purged = true; }
 	  			}
 	  			if (purged) updateAll();
 			}
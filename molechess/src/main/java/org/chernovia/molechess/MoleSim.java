@@ -0,0 +1,97 @@
+package org.chernovia.molechess;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.chernovia.lib.chess.Engine;
+import org.chernovia.lib.chess.FakeEngine;
+import org.chernovia.lib.chess.JavaPlug;
+
+/**
+ * Headless simulation: AI-only games on a virtual clock, for throughput testing.
+ * Game i is seeded with seed + i, so a failing game is replayed exactly with
+ * "MoleSim 1 1 (its seed)", which also prints its moves.
+ * The fake engine always replays exactly; the java engine does as long as its searches finish in time.
+ * Usage: MoleSim games [threads] [seed] [fake|java] [max moves]
+ */
+public class MoleSim implements MoleListener {
+
+	private final MoleChat chat = new MoleChat();
+	private final AtomicLong plies = new AtomicLong(), historyBytes = new AtomicLong(), maxHistoryBytes = new AtomicLong();
+
+	public static void main(String[] args) throws Exception {
+		int games = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		long seed = args.length > 2 ? Long.parseLong(args[2]) : System.nanoTime();
+		String engine = args.length > 3 ? args[3] : "fake";
+		int maxMoves = args.length > 4 ? Integer.parseInt(args[4]) : 300;
+		new MoleSim().run(games, threads, seed, engine, maxMoves);
+	}
+
+	void run(int games, int threads, long seed, String engine, int maxMoves) throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		ArrayList<Future<?>> results = new ArrayList<Future<?>>();
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < games; i++) {
+			long gameSeed = seed + i;
+			results.add(pool.submit(() -> play(gameSeed, engine, maxMoves, games == 1)));
+		}
+		int failed = 0;
+		for (Future<?> result : results) {
+			try { result.get(); } catch (Exception e) { failed++; }
+		}
+		pool.shutdown(); pool.awaitTermination(1, TimeUnit.MINUTES);
+		long time = Math.max(1, System.currentTimeMillis() - start);
+		int played = games - failed;
+		System.out.println("Games: " + played + " (" + failed + " failed), plies: " + plies.get() + ", time: " + time + " ms");
+		System.out.println("Games/minute: " + (played * 60000L / time) + ", plies/second: " + (plies.get() * 1000 / time));
+		if (played > 0) {
+			System.out.println("History bytes per game: " + (historyBytes.get() / played) + " avg, " + maxHistoryBytes.get() + " max");
+		}
+	}
+
+	private void play(long seed, String engineName, int maxMoves, boolean verbose) {
+		Engine engine = engineName.equals("java") ? new JavaPlug(new Random(seed)) : new FakeEngine(seed);
+		MoleUser creator = new MoleUser(null, null, "sim");
+		MoleGame game = new MoleGame(creator, "sim" + seed, this, chat);
+		game.simulate(seed, engine, maxMoves);
+		try {
+			game.play();
+		}
+		catch (RuntimeException e) {
+			MoleLog.warn("Game failed, seed: {}", seed); throw e;
+		}
+		MoveHistory history = game.getHistory();
+		plies.addAndGet(history.size());
+		long bytes = history.estimateBytes();
+		historyBytes.addAndGet(bytes); maxHistoryBytes.accumulateAndGet(bytes, Math::max);
+		if (verbose) {
+			StringBuilder moves = new StringBuilder();
+			for (MoveHistory.Ply ply : history) moves.append(ply.move).append(' ');
+			System.out.println("Seed " + seed + ": " + moves.toString().trim());
+			System.out.println("Final position: " + history.getFen(history.size() - 1));
+		}
+	}
+
+	@Override
+	public void started(MoleGame game) {}
+
+	@Override
+	public void handleAction(MoleUser user, MoleResult action) {}
+
+	@Override
+	public void updateAll() {}
+
+	@Override
+	public void changed(MoleGame game) {}
+
+	@Override
+	public void recordStats(MolePlayer player, StatsStore.Stats delta) {}
+
+	@Override
+	public void finished(MoleGame game) { game.releaseUsers(); }
+}
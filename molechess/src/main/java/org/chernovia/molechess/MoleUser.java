@@ -1,13 +1,32 @@
 package org.chernovia.molechess;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import org.chernovia.lib.zugserv.Connection;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
+/**
+ * A logged in user. Every outbound event gets a sequence number and is kept in a
+ * ring buffer of the last RESUME_BUFFER events, so a client reconnecting after a
+ * blip can be sent just what it missed. Clients that log in with "resume" get
+ * each event wrapped as {"seq": n, "data": event}. Events are encoded in the
+ * user's WireFormat when sent, so the buffer keeps them as plain nodes.
+ */
 public class MoleUser {
+  static int RESUME_BUFFER = 256;
   String oauth;
   String name;
   private Connection conn;
+  private boolean sequenced = false;
+  private volatile WireFormat format = WireFormat.JSON;
+  private long seq = 0;
+  private String[] eventTypes;
+  private JsonNode[] events;
+  private volatile JsonNode json = null;
+  private final Set<MoleGame> games = ConcurrentHashMap.newKeySet(); //played or observed
   
   public MoleUser(Connection c, String o, String n) {
     this.conn = c;
@@ -19,8 +38,24 @@ public class MoleUser {
     return (this.conn == c);
   }
   
-  public Connection getConn() { return conn; }
-  public void setConn(Connection c) { conn = c; }
+  public synchronized Connection getConn() { return conn; }
+  public synchronized void setConn(Connection c) { conn = c; }
+  public synchronized void setSequenced(boolean b) { sequenced = b; }
+  
+  //announced in the old format, everything after the announcement is in the new one
+  public synchronized void switchFormat(WireFormat f) {
+    if (f != WireFormat.JSON) {
+      ObjectNode node = MoleServ.mapper.createObjectNode();
+      node.set("names", WireFormat.namesToJSON());
+      tell("wire_names", (JsonNode)node);
+    }
+    tell("wire_format", f.toString().toLowerCase()); format = f;
+  }
+  public synchronized long getSeq() { return seq; }
+  
+  public List<MoleGame> getGames() { return new ArrayList<MoleGame>(games); }
+  public void addGame(MoleGame game) { games.add(game); }
+  public void removeGame(MoleGame game) { games.remove(game); }
   
   public void tell(String msg) {
     tell("serv_msg", msg);
@@ -33,19 +68,59 @@ public class MoleUser {
   }
   
   public void tell(String type, JsonNode node) {
-    if (this.conn != null)
-      this.conn.tell(type, node); 
+    if (oauth == null) { //AI
+      if (conn != null) conn.tell(type, node);
+      return;
+    }
+    synchronized (this) {
+      if (events == null) { events = new JsonNode[RESUME_BUFFER]; eventTypes = new String[RESUME_BUFFER]; }
+      int i = (int)(++seq % RESUME_BUFFER);
+      eventTypes[i] = type; events[i] = node;
+      send(seq, type, node);
+    }
+  }
+  
+  /**
+   * Resends the events after lastSeq
+   * @return false if they are no longer all buffered (the client then needs a snapshot)
+   */
+  public synchronized boolean replay(long lastSeq) {
+    long oldest = Math.max(1, seq - RESUME_BUFFER + 1);
+    if (lastSeq > seq || lastSeq < oldest - 1 || events == null) return false;
+    for (long n = lastSeq + 1; n <= seq; n++) {
+      int i = (int)(n % RESUME_BUFFER); send(n, eventTypes[i], events[i]);
+    }
+    return true;
   }
   
-  public JsonNode toJSON() {
-    ObjectNode obj = MoleServ.mapper.createObjectNode();
-    obj.put("name", this.name);
-    return (JsonNode)obj;
+  private void send(long n, String type, JsonNode node) {
+    if (conn == null) return;
+    node = format.wrap(node);
+    if (sequenced) {
+      ObjectNode wrapper = MoleServ.mapper.createObjectNode();
+      wrapper.put("seq", n); wrapper.set("data", node);
+      conn.tell(type, wrapper);
+    }
+    else conn.tell(type, node);
   }
   
-  public boolean equals(Object o) {
+  public JsonNode toJSON() { //the name never changes, so the fragment is encoded once
+    JsonNode node = json;
+    if (node == null) {
+    	ObjectNode obj = MoleServ.mapper.createObjectNode();
+    	obj.put("name", this.name);
+    	json = node = MoleServ.encode(obj);
+    }
+    return node;
+  }
+  
+  public boolean equals(Object o) { //AI users have no token and only equal themselves
 	  if (o == this) return true;
 	  if (!(o instanceof MoleUser)) return false;
-	  return ((MoleUser)o).oauth.equals(this.oauth);
+	  return this.oauth != null && this.oauth.equals(((MoleUser)o).oauth);
+  }
+  
+  public int hashCode() {
+	  return oauth != null ? oauth.hashCode() : System.identityHashCode(this);
   }
 }
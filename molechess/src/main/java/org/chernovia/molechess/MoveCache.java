@@ -0,0 +1,46 @@
+package org.chernovia.molechess;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of engine moves keyed by position and playing strength,
+ * so an AI player facing a known position can vote without a new search.
+ */
+public class MoveCache {
+	private final LinkedHashMap<String, String> moves;
+	
+	public MoveCache(int capacity) {
+		moves = new LinkedHashMap<String, String>(capacity, .75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, String> eldest) { return size() > capacity; }
+		};
+	}
+	
+	public synchronized String get(String fen, int elo) {
+		String move = moves.get(key(fen, elo));
+		MoleMetrics.count(move != null ? MoleMetrics.MOVE_CACHE_HIT : MoleMetrics.MOVE_CACHE_MISS);
+		return move;
+	}
+	
+	//like get, but not counted in the hit/miss metrics
+	public synchronized String peek(String fen, int elo) { return moves.get(key(fen, elo)); }
+	
+	public synchronized boolean contains(String fen, int elo) { return moves.containsKey(key(fen, elo)); }
+	
+	public synchronized void put(String fen, int elo, String move) {
+		if (move != null) moves.put(key(fen, elo), move);
+	}
+	
+	public synchronized int size() { return moves.size(); }
+	
+	//ignores the move counters so transpositions at different move numbers still hit
+	private static String key(String fen, int elo) {
+		int end = fen.length(), fields = 0;
+		for (int i = 0; i < fen.length(); i++) {
+			if (fen.charAt(i) == ' ' && ++fields == 4) { end = i; break; }
+		}
+		return fen.substring(0, end) + "@" + elo;
+	}
+}
@@ -0,0 +1,174 @@
+package org.chernovia.molechess;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import org.chernovia.lib.chess.MoveCodec;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.bhlangonijr.chesslib.Board;
+import com.github.bhlangonijr.chesslib.Side;
+import com.github.bhlangonijr.chesslib.Square;
+import com.github.bhlangonijr.chesslib.move.Move;
+
+/**
+ * Compact move history of a game: one packed int per ply and per vote (see MoveCodec),
+ * players stored as indices into an append-only roster, and a FEN keyframe every KEYFRAME plies.
+ * Positions in between are replayed from the nearest keyframe.
+ * Entries are never modified once added, so iterators read a snapshot without locking.
+ */
+public class MoveHistory implements Iterable<MoveHistory.Ply> {
+
+	static int KEYFRAME = 16;
+	private static final int COLOR_SHIFT = 16, PLAYER_SHIFT = 16;
+
+	private int[] plies = new int[64]; //selected move | color << 16
+	private int[] voteEnd = new int[64]; //end offset of each ply's votes
+	private int[] votes = new int[256]; //move | player index << 16
+	private int plyCount = 0, voteCount = 0;
+	private final ArrayList<String> keyframes = new ArrayList<String>(); //FEN before ply i * KEYFRAME
+	private final ArrayList<MolePlayer> roster = new ArrayList<MolePlayer>();
+	private final IdentityHashMap<MolePlayer, Integer> rosterIndex = new IdentityHashMap<MolePlayer, Integer>();
+
+	public MoveHistory(String startFen) { keyframes.add(startFen); }
+
+	/**
+	 * One decision of the history, unpacked.
+	 * voters[i] voted votes[i]; a selected move nobody voted for (random pick) has no voter.
+	 */
+	public static class Ply {
+		public final int index, color;
+		public final String move, fenBefore, fen;
+		public final MolePlayer[] voters;
+		public final String[] votes;
+		Ply(int i, int c, String m, String before, String after, MolePlayer[] p, String[] v) {
+			index = i; color = c; move = m; fenBefore = before; fen = after; voters = p; votes = v;
+		}
+		public JsonNode toJSON() {
+			ObjectNode node = MoleServ.mapper.createObjectNode();
+			ArrayNode altsArray = MoleServ.mapper.createArrayNode();
+			ArrayNode selectedArray = MoleServ.mapper.createArrayNode();
+			boolean voted = false;
+			for (int i = 0; i < votes.length; i++) {
+				if (votes[i].equals(move)) { voted = true; selectedArray.add(voteJSON(voters[i], votes[i])); }
+				else altsArray.add(voteJSON(voters[i], votes[i]));
+			}
+			if (!voted) selectedArray.add(voteJSON(null, move));
+			node.set("alts", altsArray);
+			node.set("selected", selectedArray);
+			node.put("fen", fen);
+			node.put("turn", color);
+			return node;
+		}
+		private static JsonNode voteJSON(MolePlayer player, String uci) {
+			ObjectNode node = MoleServ.mapper.createObjectNode();
+			node.set("player", player != null ? player.toJSON() : null);
+			int packed = MoveCodec.encode(uci);
+			ObjectNode moveNode = MoleServ.mapper.createObjectNode();
+			moveNode.put("from", Square.squareAt(MoveCodec.from(packed)).value());
+			moveNode.put("to", Square.squareAt(MoveCodec.to(packed)).value());
+			node.set("move", moveNode);
+			return node;
+		}
+	}
+
+	/**
+	 * Appends a decided ply.
+	 * @param fenAfter the position after the move, kept only when it starts a new keyframe
+	 */
+	public synchronized void add(int color, Move selected, Map<MolePlayer, Move> ballots, String fenAfter) {
+		if (plyCount == plies.length) {
+			plies = Arrays.copyOf(plies, plyCount * 2); voteEnd = Arrays.copyOf(voteEnd, plyCount * 2);
+		}
+		if (voteCount + ballots.size() > votes.length) votes = Arrays.copyOf(votes, Math.max(votes.length * 2, voteCount + ballots.size()));
+		for (Map.Entry<MolePlayer, Move> ballot : ballots.entrySet()) {
+			votes[voteCount++] = MoveCodec.encode(ballot.getValue().toString()) | (indexOf(ballot.getKey()) << PLAYER_SHIFT);
+		}
+		voteEnd[plyCount] = voteCount;
+		plies[plyCount++] = MoveCodec.encode(selected.toString()) | (color << COLOR_SHIFT);
+		if (plyCount % KEYFRAME == 0) keyframes.add(fenAfter);
+	}
+
+	public synchronized int size() { return plyCount; }
+
+	public synchronized String getLastMove() {
+		return plyCount == 0 ? null : MoveCodec.decode(plies[plyCount - 1] & 0xFFFF);
+	}
+
+	/**
+	 * @return the given ply, replayed from its keyframe (so at most KEYFRAME moves), or null if out of range
+	 */
+	public Ply get(int ply) {
+		if (ply < 0) return null;
+		Iterator<Ply> it = iterator(ply);
+		return it.hasNext() ? it.next() : null;
+	}
+
+	/**
+	 * @return the position after the given ply (-1 for the starting position)
+	 */
+	public String getFen(int ply) {
+		if (ply < 0) return keyframes.get(0);
+		Iterator<Ply> it = iterator(ply);
+		return it.hasNext() ? it.next().fen : null;
+	}
+
+	/**
+	 * Estimated heap footprint, for the metrics: arrays, keyframe strings and the roster table.
+	 */
+	public synchronized long estimateBytes() {
+		long bytes = 16L * 3 + 4L * (plies.length + voteEnd.length + votes.length);
+		for (String fen : keyframes) bytes += 40 + fen.length();
+		bytes += 8L * roster.size() + 32L * rosterIndex.size();
+		return bytes;
+	}
+
+	private int indexOf(MolePlayer player) {
+		Integer i = rosterIndex.get(player);
+		if (i == null) { i = roster.size(); roster.add(player); rosterIndex.put(player, i); }
+		return i;
+	}
+
+	@Override
+	public Iterator<Ply> iterator() { return iterator(0); }
+
+	/**
+	 * Iterates from the given ply, replaying moves from the keyframe at or before it.
+	 */
+	public synchronized Iterator<Ply> iterator(int from) {
+		final int[] p = plies, ends = voteEnd, v = votes;
+		final int count = plyCount;
+		final MolePlayer[] players = roster.toArray(new MolePlayer[0]);
+		final int frame = Math.min(Math.max(from, 0) / KEYFRAME, keyframes.size() - 1);
+		final String keyframe = keyframes.get(frame);
+		return new Iterator<Ply>() {
+			final Board board = new Board();
+			int i = frame * KEYFRAME;
+			String fen = keyframe;
+			{ board.loadFromFen(keyframe); while (i < from && i < count) step(); }
+			private void step() {
+				board.doMove(new Move(MoveCodec.decode(p[i] & 0xFFFF), (p[i] >>> COLOR_SHIFT) == MoleGame.COLOR_BLACK ? Side.BLACK : Side.WHITE));
+				fen = board.getFen(); i++;
+			}
+			@Override
+			public boolean hasNext() { return i < count; }
+			@Override
+			public Ply next() {
+				if (i >= count) throw new NoSuchElementException();
+				int index = i, start = index > 0 ? ends[index - 1] : 0, n = ends[index] - start;
+				MolePlayer[] voters = new MolePlayer[n]; String[] moves = new String[n];
+				for (int j = 0; j < n; j++) {
+					int vote = v[start + j];
+					voters[j] = players[vote >>> PLAYER_SHIFT]; moves[j] = MoveCodec.decode(vote & 0xFFFF);
+				}
+				String before = fen;
+				step();
+				return new Ply(index, p[index] >>> COLOR_SHIFT, MoveCodec.decode(p[index] & 0xFFFF), before, fen, voters, moves);
+			}
+		};
+	}
+}
@@ -0,0 +1,125 @@
+package org.chernovia.molechess;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import com.github.bhlangonijr.chesslib.move.Move;
+
+/**
+ * Running tally of one team's move votes for the current turn.
+ * Updated as each vote arrives so that selecting a move (or deciding that the
+ * outcome can no longer change) never requires rescanning the team.
+ */
+public class MoveTally {
+
+	public enum SELECTION_MODE { RANDOM, PLURALITY, WEIGHTED };
+
+	private final LinkedHashMap<MolePlayer, Move> votes = new LinkedHashMap<>();
+	private final HashMap<String, Double> weights = new HashMap<>(); //keyed by UCI string
+	private final HashMap<MolePlayer, Double> voteWeights = new HashMap<>(); //as added, since scores change mid-turn
+	private final HashMap<String, Integer> counts = new HashMap<>();
+
+	public synchronized void vote(MolePlayer player, Move move) {
+		remove(player);
+		votes.put(player, move);
+		String key = move.toString();
+		counts.merge(key, 1, Integer::sum);
+		double weight = player.voteWeight();
+		voteWeights.put(player, weight);
+		weights.merge(key, weight, Double::sum);
+	}
+
+	public synchronized void remove(MolePlayer player) {
+		Move old = votes.remove(player);
+		Double weight = voteWeights.remove(player);
+		if (old != null) {
+			String key = old.toString();
+			if (counts.merge(key, -1, Integer::sum) <= 0) { counts.remove(key); weights.remove(key); }
+			else weights.merge(key, -weight, Double::sum);
+		}
+	}
+
+	public synchronized void clear() { votes.clear(); weights.clear(); voteWeights.clear(); counts.clear(); }
+
+	public synchronized int count() { return votes.size(); }
+
+	public synchronized boolean hasVoted(MolePlayer player) { return votes.containsKey(player); }
+
+	public synchronized Move getVote(MolePlayer player) { return votes.get(player); }
+
+	/**
+	 * @return a copy of the current votes in arrival order
+	 */
+	public synchronized LinkedHashMap<MolePlayer, Move> getVotes() { return new LinkedHashMap<>(votes); }
+
+	public synchronized List<Move> getMoves() { return new ArrayList<Move>(votes.values()); }
+
+	public synchronized String listMoves() {
+		StringBuilder list = new StringBuilder();
+		for (Map.Entry<MolePlayer, Move> entry : votes.entrySet()) {
+			list.append(entry.getKey().user.name).append(": ").append(entry.getValue()).append("\n");
+		}
+		return list.toString();
+	}
+
+	/**
+	 * Picks the winning move according to the selection mode.
+	 * RANDOM draws uniformly from all votes (so duplicate votes count extra, as before),
+	 * PLURALITY takes the most voted move and WEIGHTED the move with the highest summed
+	 * player weight. Ties are broken randomly, using the game's generator.
+	 * @return the selected move, or null if nobody voted
+	 */
+	public synchronized Move select(SELECTION_MODE mode, SplittableRandom rnd) {
+		if (votes.isEmpty()) return null;
+		ArrayList<Move> moves = new ArrayList<Move>(votes.values());
+		if (mode == SELECTION_MODE.RANDOM) return moves.get(rnd.nextInt(moves.size()));
+		ArrayList<Move> leaders = new ArrayList<Move>(); double best = Double.NEGATIVE_INFINITY;
+		for (Move move : moves) {
+			double score = score(mode, move.toString());
+			if (score > best) { best = score; leaders.clear(); leaders.add(move); }
+			else if (score == best && !leaders.contains(move)) leaders.add(move);
+		}
+		return leaders.get(rnd.nextInt(leaders.size()));
+	}
+
+	/**
+	 * @return up to n distinct voted moves, most likely to be selected first (by count, or by weight for WEIGHTED)
+	 */
+	public synchronized List<Move> leaders(SELECTION_MODE mode, int n) {
+		ArrayList<Move> moves = new ArrayList<Move>();
+		for (Move move : votes.values()) if (!moves.contains(move)) moves.add(move);
+		moves.sort((a, b) -> Double.compare(score(mode, b.toString()), score(mode, a.toString())));
+		return moves.size() > n ? new ArrayList<Move>(moves.subList(0, n)) : moves;
+	}
+
+	/**
+	 * Checks whether the remaining voters can still change the result.
+	 * @param team the voting team (players who are inactive or have already voted are skipped)
+	 * @return true if the turn may end now
+	 */
+	public synchronized boolean isDecided(SELECTION_MODE mode, Collection<MolePlayer> team) {
+		double remaining = 0; int remainingVoters = 0;
+		for (MolePlayer player : team) {
+			if (player.isActive() && !votes.containsKey(player)) {
+				remainingVoters++; remaining += (mode == SELECTION_MODE.WEIGHTED) ? player.voteWeight() : 1;
+			}
+		}
+		if (remainingVoters == 0) return !votes.isEmpty();
+		if (mode == SELECTION_MODE.RANDOM) return false; //any new vote changes the odds
+		double first = 0, second = 0;
+		for (String key : counts.keySet()) {
+			double score = score(mode, key);
+			if (score > first) { second = first; first = score; }
+			else if (score > second) second = score;
+		}
+		return first > second + remaining;
+	}
+
+	private double score(SELECTION_MODE mode, String key) {
+		return (mode == SELECTION_MODE.WEIGHTED) ? weights.getOrDefault(key, 0.0) : counts.getOrDefault(key, 0);
+	}
+}
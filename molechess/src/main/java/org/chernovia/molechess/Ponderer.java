@@ -0,0 +1,73 @@
+package org.chernovia.molechess;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Speculative searches of the positions a game may reach next (after the moving team's
+ * TOP_MOVES leading candidates), run for the AI players of the team waiting to move. Results go to the shared move cache,
+ * and an AI player whose position is still being pondered simply waits for it.
+ * Pondering is capped per game and server wide, runs at low priority in the
+ * EngineScheduler and never starts while the engines are all in use.
+ */
+public class Ponderer {
+	static int MAX_GLOBAL = 4, MAX_PER_GAME = 2, TOP_MOVES = 2;
+	private static final AtomicInteger pondering = new AtomicInteger();
+	//a pondered position and the AI players waiting for it
+	private static class Search {
+		final String fen;
+		final ArrayList<MolePlayer> waiting = new ArrayList<MolePlayer>();
+		final ArrayList<Integer> moveTimes = new ArrayList<Integer>();
+		Search(String f) { fen = f; }
+	}
+	private final HashMap<String, Search> searches = new HashMap<>();
+	private final Object owner;
+	
+	public Ponderer(Object o) { owner = o; }
+	
+	public static int getPondering() { return pondering.get(); }
+	
+	public synchronized boolean ponder(String fen, int elo, int moveTime) {
+		String key = fen + "@" + elo;
+		if (searches.containsKey(key) || MoleServ.moveCache.contains(fen, elo)) return false;
+		if (searches.size() >= MAX_PER_GAME || 
+			MoleServ.engines.getLoad() >= MoleServ.engines.getThreads()) return false;
+		if (pondering.incrementAndGet() > MAX_GLOBAL) { pondering.decrementAndGet(); return false; }
+		searches.put(key, new Search(fen));
+		try {
+			MoleServ.engines.submit(move -> finished(key, move), owner, fen, moveTime, elo, EngineScheduler.PRIORITY.PONDER);
+		}
+		catch (RuntimeException e) { //never submitted, so never finished
+			searches.remove(key); pondering.decrementAndGet();
+			MoleLog.warn("Ponder failed: {}", e); return false;
+		}
+		MoleMetrics.count(MoleMetrics.PONDER_STARTED);
+		return true;
+	}
+	
+	/**
+	 * @return true if the position is being pondered, in which case the player gets its result
+	 * (or, should the search fail, analyzes the position itself with the given move time)
+	 */
+	public synchronized boolean attach(String fen, int elo, MolePlayer player, int moveTime) {
+		Search search = searches.get(fen + "@" + elo);
+		if (search == null) return false;
+		search.waiting.add(player); search.moveTimes.add(moveTime); MoleMetrics.count(MoleMetrics.PONDER_HIT);
+		return true;
+	}
+	
+	private void finished(String key, String move) {
+		Search search;
+		try { synchronized (this) { search = searches.remove(key); } }
+		finally { pondering.decrementAndGet(); }
+		if (search == null) return;
+		for (int i = 0; i < search.waiting.size(); i++) {
+			MolePlayer player = search.waiting.get(i);
+			try {
+				if (move != null) player.newStockMove(move); else player.analyzePosition(search.fen, search.moveTimes.get(i));
+			}
+			catch (RuntimeException e) { MoleLog.warn("Ponder delivery failed: {}", e); }
+		}
+	}
+}
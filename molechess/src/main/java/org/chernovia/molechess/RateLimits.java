@@ -0,0 +1,67 @@
+package org.chernovia.molechess;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Inbound flood control for one connection: a size cap and a bucket for all of its frames
+ * (checked before parsing), a bucket per command type, and a bucket of tolerated violations.
+ * Once the connection has used up its violations it is dropped.
+ */
+public class RateLimits {
+
+	public enum VERDICT { OK, THROTTLE, DISCONNECT };
+
+	static int MAX_FRAME = 4096; //characters
+	static double BURST = 20, RATE = 10; //any frame, per second
+	static double STRIKES = 20, STRIKE_RATE = .5; //violations forgiven per second
+	static long WARN_MS = 1000;
+	private static final Map<String, double[]> COMMANDS = Map.ofEntries( //burst, per second
+		Map.entry("login", new double[] { 3, .2 }),
+		Map.entry("newgame", new double[] { 2, .1 }),
+		Map.entry("startgame", new double[] { 3, .5 }),
+		Map.entry("joingame", new double[] { 5, 1 }),
+		Map.entry("partgame", new double[] { 5, 1 }),
+		Map.entry("obsgame", new double[] { 5, 1 }),
+		Map.entry("move", new double[] { 10, 4 }),
+		Map.entry("voteoff", new double[] { 5, 1 }),
+		Map.entry("resign", new double[] { 3, .5 }),
+		Map.entry("metrics", new double[] { 2, .5 }),
+		Map.entry("games_query", new double[] { 5, 1 }), //queries walk indexes and encode whole pages
+		Map.entry("leaderboard", new double[] { 3, .5 }),
+		Map.entry("stats", new double[] { 5, 1 }),
+		Map.entry("replay_seek", new double[] { 5, 2 }), //replays up to a keyframe's worth of moves
+		Map.entry("replay_watch", new double[] { 3, .5 })
+	);
+
+	private final TokenBucket frames = new TokenBucket(BURST, RATE), strikes = new TokenBucket(STRIKES, STRIKE_RATE);
+	private final HashMap<String, TokenBucket> commands = new HashMap<String, TokenBucket>();
+	private long lastWarning = 0;
+
+	public VERDICT checkFrame(String msg) {
+		if (msg.length() > MAX_FRAME) return violation(MoleMetrics.FRAME_TOO_LARGE);
+		return frames.tryTake() ? VERDICT.OK : violation(MoleMetrics.RATE_LIMITED);
+	}
+
+	public VERDICT checkCommand(String type) {
+		double[] limit = COMMANDS.get(type);
+		if (limit == null) return VERDICT.OK; //covered by the frame bucket (chat also has its own, see MoleChat)
+		TokenBucket bucket;
+		synchronized (commands) { bucket = commands.computeIfAbsent(type, t -> new TokenBucket(limit[0], limit[1])); }
+		return bucket.tryTake() ? VERDICT.OK : violation(MoleMetrics.RATE_LIMITED + "." + type);
+	}
+
+	/**
+	 * @return true at most once per WARN_MS, so throttled clients aren't answered at the rate they flood
+	 */
+	public synchronized boolean shouldWarn() {
+		long now = System.currentTimeMillis();
+		if (now - lastWarning < WARN_MS) return false;
+		lastWarning = now; return true;
+	}
+
+	private VERDICT violation(String metric) {
+		MoleMetrics.count(metric);
+		return strikes.tryTake() ? VERDICT.THROTTLE : VERDICT.DISCONNECT;
+	}
+}
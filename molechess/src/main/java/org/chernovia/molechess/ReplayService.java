@@ -0,0 +1,138 @@
+package org.chernovia.molechess;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Replays of ongoing games and of the last ARCHIVE_SIZE finished ones.
+ * replay_seek jumps straight to a ply: MoveHistory keeps a FEN every KEYFRAME plies,
+ * so only the moves since the last one are replayed.
+ * replay_watch streams plies at a given speed; everyone watching the same game at the
+ * same speed shares one cursor, and each ply is encoded once for all of them.
+ */
+public class ReplayService {
+
+	static int ARCHIVE_SIZE = 64;
+	static int MIN_PLY_MS = 100, MAX_PLY_MS = 10000, DEF_PLY_MS = 1000;
+
+	private class Replay {
+		final String key, title;
+		final MoveHistory history;
+		final Set<MoleUser> viewers = ConcurrentHashMap.newKeySet();
+		Iterator<MoveHistory.Ply> cursor;
+		volatile int next;
+		ScheduledFuture<?> task;
+
+		Replay(String k, String t, MoveHistory h, int from) {
+			key = k; title = t; history = h; next = Math.max(0, from); cursor = h.iterator(next);
+		}
+
+		//called on the scheduler thread only
+		void tick() {
+			if (!cursor.hasNext() && history.size() > next) cursor = history.iterator(next); //an ongoing game has moved on
+			if (!cursor.hasNext() || viewers.isEmpty()) { end(); return; }
+			MoveHistory.Ply ply = cursor.next(); next = ply.index + 1;
+			ObjectNode node = plyJSON(title, history, ply);
+			MoleEvents.Broadcast event = new MoleEvents.Broadcast(); event.begin();
+			JsonNode encoded = MoleServ.encode(node);
+			for (MoleUser viewer : viewers) viewer.tell("replay_ply", encoded);
+			MoleEvents.commit(event, "replay_ply", title, viewers.size(), encoded);
+		}
+
+		void end() {
+			replays.remove(key, this); task.cancel(false);
+			for (MoleUser viewer : viewers) viewer.tell("replay_end", title);
+		}
+	}
+
+	private final Function<String, MoveHistory> liveGames;
+	private final LinkedHashMap<String, MoveHistory> archive = new LinkedHashMap<String, MoveHistory>(16, .75f, true) {
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, MoveHistory> eldest) { return size() > ARCHIVE_SIZE; }
+	};
+	private final ConcurrentHashMap<String, Replay> replays = new ConcurrentHashMap<>();
+	private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread t = new Thread(r, "Replay"); t.setDaemon(true); return t;
+	});
+
+	/**
+	 * @param live finds the history of an ongoing game by title, or returns null
+	 */
+	public ReplayService(Function<String, MoveHistory> live) { liveGames = live; }
+
+	public void archive(MoleGame game) {
+		if (game.getHistory().size() == 0) return;
+		synchronized (archive) { archive.put(game.getTitle(), game.getHistory()); }
+	}
+
+	private MoveHistory find(String title) {
+		MoveHistory history = liveGames.apply(title);
+		if (history != null) return history;
+		synchronized (archive) { return archive.get(title); }
+	}
+
+	/**
+	 * Seeks to a ply: {title, ply}. Ply -1 is the starting position.
+	 * @return the ply as in a movelist, plus "ply", "plies" (the history's length) and "fen_before"
+	 */
+	public MoleResult seek(JsonNode params, ObjectNode response) {
+		String title = params.path("title").asText();
+		MoveHistory history = find(title);
+		if (history == null) return new MoleResult(false, "Game not found: " + title);
+		int n = params.path("ply").asInt(-1);
+		if (n < 0) {
+			response.put("title", title); response.put("ply", -1); response.put("plies", history.size());
+			response.put("fen", history.getFen(-1));
+			return new MoleResult("Start");
+		}
+		MoveHistory.Ply ply = history.get(n);
+		if (ply == null) return new MoleResult(false, "No such ply: " + n);
+		response.setAll(plyJSON(title, history, ply));
+		return new MoleResult("Ply: " + n);
+	}
+
+	/**
+	 * Starts watching a replay: {title, from (ply), ms (per ply)}.
+	 * Joins the replay already running for this game and speed, if any, at its current ply.
+	 */
+	public MoleResult watch(MoleUser user, JsonNode params) {
+		String title = params.path("title").asText();
+		MoveHistory history = find(title);
+		if (history == null) return new MoleResult(false, "Game not found: " + title);
+		int ms = Math.max(MIN_PLY_MS, Math.min(MAX_PLY_MS, params.path("ms").asInt(DEF_PLY_MS)));
+		unwatch(user);
+		String key = title + "@" + ms;
+		Replay replay;
+		do {
+			replay = replays.computeIfAbsent(key, k -> {
+				Replay r = new Replay(k, title, history, params.path("from").asInt(0));
+				r.task = scheduler.scheduleAtFixedRate(r::tick, ms, ms, TimeUnit.MILLISECONDS);
+				return r;
+			});
+			replay.viewers.add(user);
+		} while (replay.task.isCancelled()); //ended just now
+		return new MoleResult("Watching " + title + " from ply " + replay.next);
+	}
+
+	public void unwatch(MoleUser user) {
+		for (Replay replay : replays.values()) replay.viewers.remove(user);
+	}
+
+	private static ObjectNode plyJSON(String title, MoveHistory history, MoveHistory.Ply ply) {
+		ObjectNode node = (ObjectNode)ply.toJSON();
+		node.put("title", title); node.put("ply", ply.index); node.put("plies", history.size());
+		node.put("fen_before", ply.fenBefore);
+		return node;
+	}
+}
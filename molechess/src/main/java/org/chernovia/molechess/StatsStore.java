@@ -0,0 +1,180 @@
+package org.chernovia.molechess;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Lifetime player statistics, kept in a local journal file (one JSON line per change, replayed
+ * and compacted to one line per player on startup) and ranked by score in a Leaderboard.
+ * record() only queues the change; every BATCH_MS a writer thread merges whatever has queued up
+ * into one append and one leaderboard update per player, so games never wait on disk.
+ */
+public class StatsStore {
+
+	static long BATCH_MS = 1000;
+	static int MAX_TOP = 100;
+
+	/**
+	 * A player's totals, or a change to them.
+	 */
+	public static class Stats {
+		int games, wins, catches, caught;
+		long score;
+
+		Stats() {}
+		Stats(int g, int w, int c, int c2, long s) { games = g; wins = w; catches = c; caught = c2; score = s; }
+
+		static Stats played(boolean won) { return new Stats(1, won ? 1 : 0, 0, 0, 0); }
+		static Stats caughtMole() { return new Stats(0, 0, 1, 0, 0); }
+		static Stats caughtAsMole() { return new Stats(0, 0, 0, 1, 0); }
+		static Stats scored(int points) { return new Stats(0, 0, 0, 0, points); }
+
+		void add(Stats s) { games += s.games; wins += s.wins; catches += s.catches; caught += s.caught; score += s.score; }
+
+		ObjectNode toJSON(String name) {
+			ObjectNode obj = MoleServ.mapper.createObjectNode();
+			obj.put("name", name); obj.put("games", games); obj.put("wins", wins);
+			obj.put("catches", catches); obj.put("caught", caught); obj.put("score", score);
+			return obj;
+		}
+
+		static Stats fromJSON(JsonNode node) {
+			return new Stats(node.path("games").asInt(), node.path("wins").asInt(), node.path("catches").asInt(),
+				node.path("caught").asInt(), node.path("score").asLong());
+		}
+	}
+
+	private static class Change {
+		final String name; final Stats delta;
+		Change(String n, Stats d) { name = n; delta = d; }
+	}
+
+	private final Path file;
+	private final HashMap<String, Stats> totals = new HashMap<String, Stats>(); //guarded by this
+	private final Leaderboard board = new Leaderboard(); //guarded by this
+	private final LinkedBlockingQueue<Change> queue = new LinkedBlockingQueue<Change>();
+	private BufferedWriter journal;
+
+	public StatsStore(String path) {
+		file = Paths.get(path);
+		load();
+		Thread writer = new Thread(this::write, "StatsStore"); writer.setDaemon(true); writer.start();
+		Runtime.getRuntime().addShutdownHook(new Thread(this::close));
+	}
+
+	/**
+	 * Queues a change to a player's totals without blocking.
+	 */
+	public void record(String name, Stats delta) { queue.offer(new Change(name, delta)); }
+
+	/**
+	 * @return the player's totals and "rank" (1 is first), or null if they have none yet
+	 */
+	public synchronized ObjectNode getStats(String name) {
+		Stats stats = totals.get(name);
+		if (stats == null) return null;
+		ObjectNode obj = stats.toJSON(name);
+		obj.put("rank", board.rank(name, stats.score) + 1);
+		obj.put("players", board.size());
+		return obj;
+	}
+
+	/**
+	 * @return the players ranked from+1..from+count, best first
+	 */
+	public synchronized ArrayNode getTop(int from, int count) {
+		ArrayNode list = MoleServ.mapper.createArrayNode();
+		int rank = Math.max(0, from);
+		for (String name : board.range(rank, Math.max(0, Math.min(MAX_TOP, count)))) {
+			list.add(totals.get(name).toJSON(name).put("rank", ++rank));
+		}
+		return list;
+	}
+
+	private void write() {
+		while (true) {
+			try { Thread.sleep(BATCH_MS); }
+			catch (InterruptedException e) { return; }
+			flush();
+		}
+	}
+
+	private synchronized void close() {
+		flush();
+		try { if (journal != null) journal.close(); }
+		catch (IOException e) { MoleLog.warn("Stats journal error: {}", e.getMessage()); }
+		journal = null;
+	}
+
+	private synchronized void flush() {
+		ArrayList<Change> batch = new ArrayList<Change>();
+		queue.drainTo(batch);
+		if (batch.isEmpty()) return;
+		LinkedHashMap<String, Stats> merged = new LinkedHashMap<String, Stats>();
+		for (Change change : batch) merged.computeIfAbsent(change.name, n -> new Stats()).add(change.delta);
+		for (Map.Entry<String, Stats> entry : merged.entrySet()) apply(entry.getKey(), entry.getValue());
+		MoleMetrics.count(MoleMetrics.STATS_BATCHES); MoleMetrics.count(MoleMetrics.STATS_CHANGES, batch.size());
+		if (journal == null) return;
+		try {
+			for (Map.Entry<String, Stats> entry : merged.entrySet()) {
+				journal.write(MoleServ.mapper.writeValueAsString(entry.getValue().toJSON(entry.getKey())));
+				journal.newLine();
+			}
+			journal.flush();
+		}
+		catch (IOException e) { MoleLog.warn("Stats journal error: {}", e.getMessage()); }
+	}
+
+	private void apply(String name, Stats delta) {
+		Stats stats = totals.get(name);
+		if (stats == null) {
+			stats = new Stats(); stats.add(delta); totals.put(name, stats); board.add(name, stats.score);
+		}
+		else {
+			long oldScore = stats.score; stats.add(delta); board.update(name, oldScore, stats.score);
+		}
+	}
+
+	//replays the journal, then rewrites it with one line per player
+	private synchronized void load() {
+		try {
+			if (Files.isReadable(file)) {
+				for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+					if (line.isBlank()) continue;
+					try {
+						JsonNode node = MoleServ.mapper.readTree(line);
+						apply(node.path("name").asText(), Stats.fromJSON(node));
+					}
+					catch (IOException e) { MoleLog.warn("Skipping bad stats line: {}", line); }
+				}
+			}
+			Path compacted = file.resolveSibling(file.getFileName() + ".tmp");
+			try (BufferedWriter out = Files.newBufferedWriter(compacted, StandardCharsets.UTF_8)) {
+				for (Map.Entry<String, Stats> entry : totals.entrySet()) {
+					out.write(MoleServ.mapper.writeValueAsString(entry.getValue().toJSON(entry.getKey())));
+					out.newLine();
+				}
+			}
+			Files.move(compacted, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			journal = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+			MoleLog.info("Loaded stats for {} players from {}", totals.size(), file);
+		}
+		catch (IOException e) {
+			MoleLog.warn("Stats will not be saved ({}): {}", file, e.getMessage());
+		}
+	}
+}
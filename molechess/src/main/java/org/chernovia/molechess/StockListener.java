@@ -1,5 +1,8 @@
 package org.chernovia.molechess;
 
+import org.chernovia.lib.chess.SearchResult;
+
 public interface StockListener {
 	public void newStockMove(String move);
+	public default void newSearchResult(SearchResult result) { newStockMove(result.bestMove); }
 }
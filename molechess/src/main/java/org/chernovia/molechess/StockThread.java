@@ -1,23 +1,56 @@
 package org.chernovia.molechess;
 
-import org.chernovia.lib.chess.StockPlug;
+import org.chernovia.lib.chess.Engine;
+import org.chernovia.lib.chess.EngineEvents;
+import org.chernovia.lib.chess.SearchRequest;
+import org.chernovia.lib.chess.SearchResult;
 
+/**
+ * Engine worker owned by the EngineScheduler. Keeps one engine (normally a
+ * Stockfish process) alive across searches instead of spawning one per move.
+ */
 public class StockThread extends Thread {
-	StockListener listener;
-	StockPlug stockfish;
-	String fen;
-	int moveTime, elo;
+	EngineScheduler scheduler;
+	Engine engine;
 	
-	public StockThread(StockListener l, String fen, int moveTime, int elo) { 
-		stockfish = new StockPlug();
-		listener = l; this.fen = fen; this.moveTime = moveTime; this.elo = elo;
+	public StockThread(EngineScheduler s, int id) {
+		super("StockThread-" + id); setDaemon(true);
+		scheduler = s;
 	}
 	
 	public void run() {
-		stockfish.startEngine(MoleServ.STOCK_PATH);
-		stockfish.setOptions(1,25,elo);
-		String move = stockfish.getBestMove(fen, moveTime);
-		listener.newStockMove(move); //System.out.println("New Move: " + move);
-		stockfish.stopEngine();
+		EngineScheduler.Job job;
+		while ((job = scheduler.take(this)) != null) {
+			SearchResult result;
+			try {
+				result = search(job);
+			}
+			catch (Exception oops) {
+				MoleLog.warn("Engine error: {}", oops.getMessage());
+				if (engine != null) { engine.stop(); engine = null; }
+				MoleMetrics.count(MoleMetrics.ENGINE_FALLBACK);
+				result = EngineScheduler.searchInProcessSafely(job);
+			}
+			finally { scheduler.done(job); }
+			EngineScheduler.deliver(job, result); //outside the try, so a failing listener isn't taken for an engine failure
+		}
+		if (engine != null) engine.stop();
+	}
+	
+	private SearchResult search(EngineScheduler.Job job) {
+		if (engine == null) {
+			engine = scheduler.newEngine();
+			engine.setMaxMemoryMB(scheduler.getMaxEngineMB());
+			if (!engine.start()) throw new IllegalStateException("cannot start " + engine.getName());
+			engine.setOptions(1,scheduler.getHashPerEngine());
+		}
+		SearchRequest request = new SearchRequest(job.fen, scheduler.adaptMoveTime(job), job.elo);
+		EngineEvents.Search event = new EngineEvents.Search(); event.begin();
+		SearchResult result = engine.search(request);
+		EngineEvents.commit(event, request, result);
+		if (result.bestMove == null) throw new IllegalStateException("no move from " + engine.getName());
+		EngineScheduler.record(result);
+		MoleServ.moveCache.put(job.fen, job.elo, result.bestMove);
+		return result;
 	}
 }
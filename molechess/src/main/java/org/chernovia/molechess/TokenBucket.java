@@ -0,0 +1,23 @@
+package org.chernovia.molechess;
+
+/**
+ * Classic token bucket: holds up to 'capacity' tokens, refilled continuously
+ * at 'rate' tokens per second.
+ */
+public class TokenBucket {
+	private final double capacity, perMilli;
+	private double tokens;
+	private long last;
+	
+	public TokenBucket(double capacity, double rate) {
+		this.capacity = capacity; perMilli = rate / 1000; tokens = capacity; last = System.currentTimeMillis();
+	}
+	
+	public boolean tryTake() { return tryTake(1); }
+	public synchronized boolean tryTake(double n) {
+		long now = System.currentTimeMillis();
+		tokens = Math.min(capacity, tokens + ((now - last) * perMilli)); last = now;
+		if (tokens < n) return false;
+		tokens -= n; return true;
+	}
+}
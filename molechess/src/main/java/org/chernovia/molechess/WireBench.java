@@ -0,0 +1,65 @@
+package org.chernovia.molechess;
+
+import java.util.ArrayList;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.chernovia.lib.chess.FakeEngine;
+
+/**
+ * Compares the wire formats on real payloads: a games_update lobby listing and the
+ * movelist of a finished game, both from simulated games (see MoleSim).
+ * Reports encoded size, the size of the whole text frame it is sent in ({"type", "data"}:
+ * zugserv connections only carry text, so binary payloads travel base64'd), encode/decode
+ * time per message, and the approximate heap held by each finished game.
+ * Usage: WireBench [games] [iterations]
+ */
+public class WireBench {
+
+	public static void main(String[] args) throws Exception {
+		int games = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+		int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+		MoleSim listener = new MoleSim();
+		MoleChat chat = new MoleChat();
+		ArrayList<MoleGame> played = new ArrayList<MoleGame>();
+		long heapBefore = usedHeap(), historyBytes = 0;
+		for (int i = 0; i < games; i++) {
+			MoleGame game = new MoleGame(new MoleUser(null, null, "bench"), "bench" + i, listener, chat);
+			game.simulate(i, new FakeEngine(i), 100);
+			game.play(); game.historyToJSON(); //with its movelist cache filled, as on a server
+			played.add(game); historyBytes += game.getHistory().estimateBytes();
+		}
+		System.out.println("Heap per finished game: " + (usedHeap() - heapBefore) / games + " bytes (history arrays: " +
+			historyBytes / games + ")");
+		ArrayNode lobby = MoleServ.mapper.createArrayNode();
+		for (MoleGame game : played) lobby.add(game.toJSON());
+		bench("games_update", lobby, iterations);
+		bench("movelist", played.get(0).historyToJSON(), iterations);
+	}
+
+	//approximate: after a full collection
+	private static long usedHeap() throws InterruptedException {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) { System.gc(); Thread.sleep(50); }
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	private static void bench(String name, JsonNode payload, int iterations) throws Exception {
+		System.out.println(name + ":");
+		for (WireFormat format : WireFormat.values()) {
+			byte[] bytes = format.encode(payload);
+			for (int i = 0; i < iterations; i++) format.decode(format.encode(payload)); //warm up
+			long start = System.nanoTime();
+			for (int i = 0; i < iterations; i++) bytes = format.encode(payload);
+			long encodeNanos = (System.nanoTime() - start) / iterations;
+			start = System.nanoTime();
+			for (int i = 0; i < iterations; i++) format.decode(bytes);
+			long decodeNanos = (System.nanoTime() - start) / iterations;
+			ObjectNode frame = MoleServ.mapper.createObjectNode();
+			frame.put("type", name); frame.set("data", format.wrap(payload));
+			int sent = MoleServ.mapper.writeValueAsBytes(frame).length;
+			System.out.println(String.format("  %-6s %8d bytes %8d sent (text frame) %9d ns encode %9d ns decode",
+				format, bytes.length, sent, encodeNanos, decodeNanos));
+		}
+	}
+}
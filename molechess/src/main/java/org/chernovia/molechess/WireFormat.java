@@ -0,0 +1,177 @@
+package org.chernovia.molechess;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.util.JsonGeneratorDelegate;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.JsonSerializable;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.BinaryNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.POJONode;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+
+/**
+ * Payload encodings a client can choose at login ({"token": ..., "format": "smile"}).
+ * JSON is the default. With SMILE (field names and short strings shared through back references)
+ * or CBOR, each message's data is sent as the binary encoding, base64'd inside the usual text frame,
+ * since zugserv connections only carry text (so base64 gives back about a third of the saving).
+ * Smile's back references only reach within one message, so binary formats also replace the
+ * protocol's field names with their index in NAMES ("play_col" becomes "28"). The table is sent
+ * as "wire_names" when a client switches format. A name missing from the table is sent as is
+ * (only a name starting with a digit or '~' gets a '~' prefix, which the client strips), so a
+ * new field works without a table change and merely isn't shortened.
+ */
+public enum WireFormat {
+	JSON(MoleServ.mapper),
+	SMILE(new ObjectMapper(new SmileFactory().enable(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES))),
+	CBOR(new ObjectMapper(new CBORFactory()));
+
+	static final String[] NAMES = {
+		"title", "msg", "fen", "plies", "players", "player", "name", "votes", "turn", "source",
+		"score", "rank", "ply", "next", "lm", "games", "wins", "user", "to", "teams",
+		"team", "seq", "selected", "move", "mole", "history", "from", "data", "play_col", "game_col",
+		"mole_likeness", "fen_before", "eval", "creator", "count", "color", "caught", "catches", "blunders", "best",
+		"away", "avg_loss", "alts", "accuracy", "phase", "observers", "seats"
+	};
+	private static final HashMap<String, String> aliases = new HashMap<String, String>();
+	private static final HashMap<String, String> names = new HashMap<String, String>();
+	static {
+		for (int i = 0; i < NAMES.length; i++) { aliases.put(NAMES[i], String.valueOf(i)); names.put(String.valueOf(i), NAMES[i]); }
+	}
+
+	final ObjectMapper mapper;
+
+	WireFormat(ObjectMapper m) { mapper = m; }
+
+	/**
+	 * @return the format named by the client, or JSON if the name is unknown
+	 */
+	public static WireFormat parse(String name) {
+		for (WireFormat format : values()) if (format.name().equalsIgnoreCase(name)) return format;
+		return JSON;
+	}
+
+	/**
+	 * @return the node as this format should carry it: itself for JSON, otherwise a binary node
+	 */
+	public JsonNode wrap(JsonNode node) {
+		if (this == JSON) return node;
+		try {
+			if (node instanceof POJONode && ((POJONode)node).getPojo() instanceof Encoded) {
+				return new BinaryNode(((Encoded)((POJONode)node).getPojo()).binary(this));
+			}
+			return new BinaryNode(encode(node));
+		}
+		catch (IOException e) { MoleLog.warn("{} encoding error: {}", this, e.getMessage()); return node; }
+	}
+
+	/**
+	 * @return the node in this format, field names aliased for the binary formats
+	 */
+	public byte[] encode(JsonNode node) throws IOException {
+		if (this == JSON) return mapper.writeValueAsBytes(node);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (JsonGenerator gen = new Aliasing(mapper.getFactory().createGenerator(out))) { mapper.writeTree(gen, node); }
+		return out.toByteArray();
+	}
+
+	/**
+	 * Reverses encode (as a client would).
+	 */
+	public JsonNode decode(byte[] bytes) throws IOException {
+		JsonNode node = mapper.readTree(bytes);
+		if (this != JSON) unalias(node);
+		return node;
+	}
+
+	/**
+	 * @return the table as sent to clients
+	 */
+	public static ArrayNode namesToJSON() {
+		ArrayNode list = MoleServ.mapper.createArrayNode();
+		for (String name : NAMES) list.add(name);
+		return list;
+	}
+
+	static String alias(String name) {
+		String alias = aliases.get(name);
+		if (alias != null) return alias;
+		if (!name.isEmpty() && (Character.isDigit(name.charAt(0)) || name.charAt(0) == '~')) return "~" + name;
+		return name;
+	}
+
+	static String unalias(String name) {
+		String original = names.get(name);
+		if (original != null) return original;
+		return name.startsWith("~") ? name.substring(1) : name;
+	}
+
+	private static void unalias(JsonNode node) {
+		if (node instanceof ObjectNode) {
+			ObjectNode obj = (ObjectNode)node;
+			LinkedHashMap<String, JsonNode> fields = new LinkedHashMap<String, JsonNode>();
+			for (Iterator<Map.Entry<String, JsonNode>> it = obj.fields(); it.hasNext(); ) {
+				Map.Entry<String, JsonNode> entry = it.next();
+				unalias(entry.getValue()); fields.put(unalias(entry.getKey()), entry.getValue());
+			}
+			obj.removeAll(); obj.setAll(fields);
+		}
+		else if (node.isArray()) for (JsonNode element : node) unalias(element);
+	}
+
+	private static class Aliasing extends JsonGeneratorDelegate {
+		Aliasing(JsonGenerator gen) { super(gen, false); }
+		@Override
+		public void writeFieldName(String name) throws IOException { delegate.writeFieldName(alias(name)); }
+		@Override
+		public void writeFieldName(SerializableString name) throws IOException { delegate.writeFieldName(alias(name.getValue())); }
+	}
+
+	/**
+	 * A node serialized once per format (see MoleServ.encode) and shared by every recipient.
+	 * JSON output splices the cached text; binary generators, which can't take raw JSON,
+	 * write the tree (nested fragments included) and cache the bytes.
+	 */
+	static class Encoded implements JsonSerializable {
+		final JsonNode node;
+		final String json;
+		private volatile byte[] smile, cbor;
+
+		Encoded(JsonNode n, String text) { node = n; json = text; }
+
+		byte[] binary(WireFormat format) throws IOException {
+			byte[] bytes = format == SMILE ? smile : cbor;
+			if (bytes == null) {
+				bytes = format.encode(node);
+				if (format == SMILE) smile = bytes; else cbor = bytes;
+			}
+			return bytes;
+		}
+
+		@Override
+		public void serialize(JsonGenerator gen, SerializerProvider serializers) throws IOException {
+			if (gen.canWriteBinaryNatively()) serializers.defaultSerializeValue(node, gen);
+			else gen.writeRawValue(json);
+		}
+
+		@Override
+		public void serializeWithType(JsonGenerator gen, SerializerProvider serializers, TypeSerializer typeSer) throws IOException {
+			serialize(gen, serializers);
+		}
+
+		@Override
+		public String toString() { return json; }
+	}
+}
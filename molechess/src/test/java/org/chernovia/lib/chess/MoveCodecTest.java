@@ -0,0 +1,40 @@
+package org.chernovia.lib.chess;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+public class MoveCodecTest {
+
+	@Test
+	void roundTripsEveryMove() {
+		String files = "abcdefgh", ranks = "12345678";
+		for (int from = 0; from < 64; from++) for (int to = 0; to < 64; to++) {
+			if (from == 0 && to == 0) continue; //a1a1 packs to NONE
+			String uci = "" + files.charAt(from % 8) + ranks.charAt(from / 8) + files.charAt(to % 8) + ranks.charAt(to / 8);
+			int move = MoveCodec.encode(uci);
+			assertEquals(from, MoveCodec.from(move));
+			assertEquals(to, MoveCodec.to(move));
+			assertEquals(uci, MoveCodec.decode(move));
+		}
+	}
+
+	@Test
+	void keepsPromotions() {
+		for (String uci : new String[] { "e7e8q", "e7e8r", "b2a1b", "g7h8n" }) {
+			int move = MoveCodec.encode(uci);
+			assertTrue(move < 1 << 16, uci + " fits in 16 bits");
+			assertEquals(uci, MoveCodec.decode(move));
+		}
+		assertEquals("e7e8q", MoveCodec.decode(MoveCodec.encode("e7e8Q")));
+	}
+
+	@Test
+	void rejectsNonMoves() {
+		assertEquals(MoveCodec.NONE, MoveCodec.encode(null));
+		assertEquals(MoveCodec.NONE, MoveCodec.encode("e2"));
+		assertEquals(MoveCodec.NONE, MoveCodec.encode("i2i4"));
+		assertEquals(MoveCodec.NONE, MoveCodec.encode("e0e9"));
+		assertEquals(MoveCodec.NONE, MoveCodec.encode("(none)"));
+		assertNull(MoveCodec.decode(MoveCodec.NONE));
+	}
+}
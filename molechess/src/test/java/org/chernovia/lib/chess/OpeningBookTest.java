@@ -0,0 +1,82 @@
+package org.chernovia.lib.chess;
+
+import static org.junit.jupiter.api.Assertions.*;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Lookups in a small book written by BookBuilder (synthetic keys, so no board is needed).
+ */
+public class OpeningBookTest {
+
+	static final long START = 0x463B96181691FC9CL, SICILIAN = -0x2F9A3B0C11D4E5F6L, MISSING = 42L;
+
+	private File file;
+	private OpeningBook book;
+
+	@BeforeEach
+	void writeBook() throws Exception {
+		file = File.createTempFile("book", ".bin");
+		List<BookBuilder.Entry> entries = new ArrayList<>();
+		entries.add(new BookBuilder.Entry(START, MoveCodec.encode("e2e4"), 3, 1200));
+		entries.add(new BookBuilder.Entry(START, MoveCodec.encode("d2d4"), 1, 1200));
+		entries.add(new BookBuilder.Entry(START, MoveCodec.encode("c2c4"), 5, 2000));
+		entries.add(new BookBuilder.Entry(SICILIAN, MoveCodec.encode("g1f3"), 2, 1200));
+		for (long key = 1; key < 40; key++) entries.add(new BookBuilder.Entry(key * 1000003L, MoveCodec.encode("a2a3"), 1, 2000));
+		BookBuilder.write(file.getPath(), entries, Arrays.asList(1200, 2000));
+		book = OpeningBook.open(file.getPath());
+	}
+
+	@AfterEach
+	void deleteBook() { file.delete(); }
+
+	@Test
+	void readsTheHeader() {
+		assertEquals(43, book.size());
+		assertEquals(1200, book.getProfile(800));
+		assertEquals(1200, book.getProfile(1500));
+		assertEquals(2000, book.getProfile(1700));
+		assertEquals(2000, book.getProfile(2800));
+	}
+
+	@Test
+	void picksMovesByWeight() { //a key's entries are stored in packed move order, so d2d4 (weight 1) comes first
+		assertEquals("d2d4", book.getMove(START, 1200, 0));
+		assertEquals("d2d4", book.getMove(START, 1200, .24));
+		assertEquals("e2e4", book.getMove(START, 1200, .25));
+		assertEquals("e2e4", book.getMove(START, 1200, .99));
+	}
+
+	@Test
+	void keepsProfilesApart() {
+		assertEquals("c2c4", book.getMove(START, 2000, .5));
+		assertNull(book.getMove(SICILIAN, 2000, .5));
+		assertEquals("g1f3", book.getMove(SICILIAN, 1200, .5));
+	}
+
+	@Test
+	void findsEveryKey() {
+		for (long key = 1; key < 40; key++) assertEquals("a2a3", book.getMove(key * 1000003L, 2000, .5));
+		assertNull(book.getMove(MISSING, 1200, .5));
+		assertNull(book.getMove(Long.MAX_VALUE, 2000, .5));
+	}
+
+	@Test
+	void treatsBadFilesAsEmpty() throws Exception {
+		assertEquals(0, OpeningBook.open(file.getPath() + ".missing").size());
+		File junk = File.createTempFile("junk", ".bin");
+		try {
+			Files.write(junk.toPath(), new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+			OpeningBook empty = OpeningBook.open(junk.getPath());
+			assertEquals(0, empty.size());
+			assertNull(empty.getMove(START, 1200, .5));
+		}
+		finally { junk.delete(); }
+	}
+}
@@ -0,0 +1,56 @@
+package org.chernovia.lib.chess;
+
+import static org.junit.jupiter.api.Assertions.*;
+import java.net.ServerSocket;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Loopback tests of the engine RPC: an EngineWorker on an ephemeral port, listed behind
+ * a dead address. Needs no engine binary (the worker answers every position with the same move).
+ */
+public class RemoteEnginesTest {
+
+	static final String MOVE = "e2e4";
+	static final SearchRequest REQUEST = new SearchRequest("8/8/8/8/8/8/8/8 w - - 0 1", 100);
+
+	private EngineWorker worker;
+	private RemoteEngines remote;
+
+	@BeforeEach
+	void startWorker() throws Exception {
+		int deadPort;
+		try (ServerSocket probe = new ServerSocket(0)) { deadPort = probe.getLocalPort(); } //closed, so nothing listens there
+		worker = new EngineWorker(0, new Engine() {
+			public String getName() { return "test"; }
+			public boolean start() { return true; }
+			public void setOptions(int threads, int hashsize) {}
+			public SearchResult search(SearchRequest request) {
+				SearchResult result = new SearchResult(getName()); result.bestMove = MOVE; return result;
+			}
+			public void stop() {}
+		});
+		worker.setDaemon(true); worker.start();
+		remote = new RemoteEngines("127.0.0.1:" + deadPort + ",127.0.0.1:" + worker.getPort());
+	}
+
+	@AfterEach
+	void stopWorker() throws Exception { worker.shutdown(); worker.join(5000); }
+
+	@Test
+	void failsOverToTheLiveWorker() {
+		Engine engine = remote.newEngine();
+		assertEquals(MOVE, engine.search(REQUEST).bestMove);
+		assertTrue(remote.getStatus().get(0).endsWith("(down)"), "dead worker marked down: " + remote.getStatus());
+		engine.stop();
+	}
+
+	@Test
+	void returnsNoMoveWithEveryWorkerDown() throws Exception {
+		Engine engine = remote.newEngine();
+		assertEquals(MOVE, engine.search(REQUEST).bestMove);
+		worker.shutdown(); worker.join(5000); engine.stop(); //its listening socket is only gone once it stops accepting
+		assertNull(engine.search(REQUEST).bestMove);
+	}
+}
@@ -0,0 +1,80 @@
+package org.chernovia.lib.chess;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+public class UciParserTest {
+
+	@Test
+	void readsInfoFields() {
+		SearchResult result = new SearchResult("test");
+		assertFalse(UciParser.parseLine("info depth 18 seldepth 24 multipv 1 score cp 35 nodes 1234567 nps 987654 " +
+			"hashfull 12 tbhits 0 time 1250 pv e2e4 e7e5 g1f3", result));
+		assertEquals(18, result.depth);
+		assertEquals(24, result.seldepth);
+		assertEquals(35, result.scoreCp);
+		assertEquals(0, result.mate);
+		assertEquals(1234567L, result.nodes);
+		assertEquals(987654L, result.nps);
+		assertEquals(1250L, result.time);
+		assertEquals("e2e4 e7e5 g1f3", result.pv);
+	}
+
+	@Test
+	void readsNegativeScoresAndMates() {
+		SearchResult result = new SearchResult("test");
+		UciParser.parseLine("info depth 5 score cp -120 pv d7d5", result);
+		assertEquals(-120, result.scoreCp);
+		UciParser.parseLine("info depth 9 score mate -3 pv h7h6", result);
+		assertEquals(-3, result.mate);
+		assertTrue(result.isMate());
+		assertEquals(-100000 + 3, result.getScore());
+		UciParser.parseLine("info depth 10 score cp 80", result);
+		assertEquals(0, result.mate, "a cp score clears an earlier mate");
+	}
+
+	@Test
+	void keepsTheFirstScoreOfALine() {
+		SearchResult result = new SearchResult("test");
+		UciParser.parseLine("info score cp 50 lowerbound string cp 999", result);
+		assertEquals(50, result.scoreCp);
+	}
+
+	@Test
+	void stopsAtFreeText() {
+		SearchResult result = new SearchResult("test");
+		UciParser.parseLine("info string depth 99 NNUE evaluation enabled", result);
+		assertEquals(0, result.depth);
+	}
+
+	@Test
+	void endsOnBestMove() {
+		SearchResult result = new SearchResult("test");
+		assertTrue(UciParser.parseLine("bestmove e7e8q ponder d1d8", result));
+		assertEquals("e7e8q", result.bestMove);
+		assertEquals("d1d8", result.ponder);
+	}
+
+	@Test
+	void readsBestMoveWithoutPonder() {
+		SearchResult result = new SearchResult("test");
+		assertTrue(UciParser.parseLine("bestmove g1f3", result));
+		assertEquals("g1f3", result.bestMove);
+		assertNull(result.ponder);
+	}
+
+	@Test
+	void treatsNoneAsNoMove() {
+		SearchResult result = new SearchResult("test");
+		assertTrue(UciParser.parseLine("bestmove (none)", result));
+		assertNull(result.bestMove);
+	}
+
+	@Test
+	void ignoresOtherLines() {
+		SearchResult result = new SearchResult("test");
+		assertFalse(UciParser.parseLine("readyok", result));
+		assertFalse(UciParser.parseLine("", result));
+		assertNull(result.bestMove);
+	}
+}
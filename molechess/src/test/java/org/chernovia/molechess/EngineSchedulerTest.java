@@ -0,0 +1,100 @@
+package org.chernovia.molechess;
+
+import static org.junit.jupiter.api.Assertions.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.chernovia.lib.chess.Engine;
+import org.chernovia.lib.chess.SearchRequest;
+import org.chernovia.lib.chess.SearchResult;
+
+/**
+ * Holds the scheduler's only worker on a first search while jobs queue up behind it,
+ * then checks the order in which the worker takes them. Each job's "fen" is just its label.
+ */
+public class EngineSchedulerTest {
+
+	static final String BLOCKER = "blocker";
+
+	private final List<String> searched = Collections.synchronizedList(new ArrayList<>());
+	private final CountDownLatch blocked = new CountDownLatch(1), release = new CountDownLatch(1);
+	private EngineScheduler scheduler;
+	private int overload;
+
+	@BeforeEach
+	void holdTheWorker() throws InterruptedException {
+		overload = EngineScheduler.OVERLOAD;
+		EngineScheduler.OVERLOAD = 100; //keep every live job in the queue
+		scheduler = new EngineScheduler(1, 16);
+		scheduler.setEngineFactory(() -> new Engine() {
+			public String getName() { return "test"; }
+			public boolean start() { return true; }
+			public void setOptions(int threads, int hashsize) {}
+			public SearchResult search(SearchRequest request) {
+				if (request.fen.equals(BLOCKER)) {
+					blocked.countDown();
+					try { release.await(); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+				}
+				else searched.add(request.fen);
+				SearchResult result = new SearchResult(getName()); result.bestMove = "e2e4"; return result;
+			}
+			public void stop() {}
+		}, false);
+		scheduler.submit(move -> {}, "blocking game", BLOCKER, 100, 0, EngineScheduler.PRIORITY.LIVE);
+		assertTrue(blocked.await(5, TimeUnit.SECONDS), "worker started");
+	}
+
+	@AfterEach
+	void restore() { release.countDown(); EngineScheduler.OVERLOAD = overload; }
+
+	//submits the labelled jobs, lets the worker go and returns the labels in the order they were searched
+	private List<String> run(Object[][] jobs) throws InterruptedException {
+		CountDownLatch finished = new CountDownLatch(jobs.length);
+		for (Object[] job : jobs) {
+			scheduler.submit(move -> finished.countDown(), job[1], (String)job[0], 100, 0, (EngineScheduler.PRIORITY)job[2]);
+		}
+		assertEquals(jobs.length, scheduler.getQueued());
+		release.countDown();
+		assertTrue(finished.await(5, TimeUnit.SECONDS), "all jobs searched");
+		return searched;
+	}
+
+	@Test
+	void servesHigherPrioritiesFirst() throws InterruptedException {
+		assertEquals(List.of("live1", "live2", "ponder1", "ponder2", "analysis1"), run(new Object[][] {
+			{ "analysis1", "a", EngineScheduler.PRIORITY.ANALYSIS },
+			{ "ponder1", "a", EngineScheduler.PRIORITY.PONDER },
+			{ "live1", "a", EngineScheduler.PRIORITY.LIVE },
+			{ "ponder2", "a", EngineScheduler.PRIORITY.PONDER },
+			{ "live2", "a", EngineScheduler.PRIORITY.LIVE }
+		}));
+	}
+
+	@Test
+	void takesTurnsAcrossGames() throws InterruptedException {
+		assertEquals(List.of("a1", "b1", "c1", "a2", "c2", "a3"), run(new Object[][] {
+			{ "a1", "a", EngineScheduler.PRIORITY.LIVE },
+			{ "a2", "a", EngineScheduler.PRIORITY.LIVE },
+			{ "b1", "b", EngineScheduler.PRIORITY.LIVE },
+			{ "a3", "a", EngineScheduler.PRIORITY.LIVE },
+			{ "c1", "c", EngineScheduler.PRIORITY.LIVE },
+			{ "c2", "c", EngineScheduler.PRIORITY.LIVE }
+		}));
+	}
+
+	@Test
+	void takesTurnsWithinEachPriority() throws InterruptedException {
+		assertEquals(List.of("live-b", "ponder-a1", "ponder-b1", "ponder-a2", "analysis-b"), run(new Object[][] {
+			{ "ponder-a1", "a", EngineScheduler.PRIORITY.PONDER },
+			{ "ponder-a2", "a", EngineScheduler.PRIORITY.PONDER },
+			{ "analysis-b", "b", EngineScheduler.PRIORITY.ANALYSIS },
+			{ "ponder-b1", "b", EngineScheduler.PRIORITY.PONDER },
+			{ "live-b", "b", EngineScheduler.PRIORITY.LIVE }
+		}));
+	}
+}
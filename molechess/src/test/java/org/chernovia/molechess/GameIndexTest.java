@@ -0,0 +1,108 @@
+package org.chernovia.molechess;
+
+import static org.junit.jupiter.api.Assertions.*;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Predicate;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Pages through games_query results with cursors and checks them against the games' own order.
+ * Half the games run on a virtual clock, so their activity time is 0 and they tie on it.
+ */
+public class GameIndexTest {
+
+	private final GameIndex index = new GameIndex();
+	private final MoleChat chat = new MoleChat();
+	private final MoleListener listener = new MoleListener() {
+		public void started(MoleGame game) {}
+		public void handleAction(MoleUser user, MoleResult action) {}
+		public void updateAll() {}
+		public void changed(MoleGame game) { index.update(game); }
+		public void recordStats(MolePlayer player, StatsStore.Stats delta) {}
+		public void finished(MoleGame game) {}
+	};
+	private final MoleUser alice = new MoleUser(null, null, "alice"), bob = new MoleUser(null, null, "bob");
+	private final List<MoleGame> games = new ArrayList<>();
+
+	@BeforeEach
+	void createGames() {
+		for (int i = 0; i < 23; i++) {
+			MoleGame game = new MoleGame(i % 3 == 0 ? alice : bob, String.format("game%02d", i), listener, chat);
+			if (i % 2 == 0) game.simulate(i, null, 0);
+			games.add(game); index.add(game);
+		}
+	}
+
+	private List<MoleGame> expected(Predicate<MoleGame> filter) {
+		List<MoleGame> list = new ArrayList<>();
+		for (MoleGame game : games) if (filter.test(game)) list.add(game);
+		list.sort(Comparator.comparingLong((MoleGame g) -> -g.getLastActivity()).thenComparing(MoleGame::getTitle));
+		return list;
+	}
+
+	private List<String> pageAll(ObjectNode params) {
+		List<String> titles = new ArrayList<>();
+		for (int pages = 0; pages < 100; pages++) {
+			ObjectNode response = MoleServ.mapper.createObjectNode();
+			assertTrue(index.query(params, response).result);
+			for (JsonNode game : response.get("games")) titles.add(game.get("title").asText());
+			if (response.get("next").isNull()) return titles;
+			params.put("cursor", response.get("next").asText());
+		}
+		fail("cursor never ran out");
+		return titles;
+	}
+
+	private static List<String> titles(List<MoleGame> games) {
+		List<String> titles = new ArrayList<>();
+		for (MoleGame game : games) titles.add(game.getTitle());
+		return titles;
+	}
+
+	@Test
+	void pagesThroughEveryGameOnce() {
+		for (int limit : new int[] { 1, 4, 5, 23, 50 }) {
+			ObjectNode params = MoleServ.mapper.createObjectNode().put("limit", limit);
+			assertEquals(titles(expected(g -> true)), pageAll(params), "limit " + limit);
+		}
+	}
+
+	@Test
+	void filtersByCreatorAndObservers() {
+		assertEquals(titles(expected(g -> g.getCreator() == alice)), pageAll(MoleServ.mapper.createObjectNode().put("creator", "alice").put("limit", 3)));
+		assertTrue(pageAll(MoleServ.mapper.createObjectNode().put("creator", "carol")).isEmpty());
+		games.get(4).addObserver(alice); games.get(7).addObserver(alice); games.get(7).addObserver(bob);
+		assertEquals(titles(expected(g -> g.getObserverCount() >= 1)), pageAll(MoleServ.mapper.createObjectNode().put("min_observers", 1).put("limit", 1)));
+		assertEquals(List.of("game07"), pageAll(MoleServ.mapper.createObjectNode().put("min_observers", 2)));
+		assertEquals(List.of(), pageAll(MoleServ.mapper.createObjectNode().put("phase", "voting")));
+		assertEquals(titles(expected(g -> true)), pageAll(MoleServ.mapper.createObjectNode().put("color", MoleGame.COLOR_WHITE).put("limit", 7)));
+	}
+
+	@Test
+	void forgetsRemovedAndReplacedGames() {
+		MoleGame removed = games.remove(5), replaced = games.remove(8);
+		index.remove(removed);
+		assertFalse(index.contains(removed));
+		MoleGame newer = new MoleGame(alice, replaced.getTitle(), listener, chat);
+		games.add(newer); index.add(newer);
+		assertFalse(index.contains(replaced));
+		index.update(replaced); //a late update from the old game is ignored
+		assertTrue(index.contains(newer));
+		assertEquals(titles(expected(g -> true)), pageAll(MoleServ.mapper.createObjectNode().put("limit", 6)));
+		assertEquals(titles(expected(g -> g.getCreator() == bob)), pageAll(MoleServ.mapper.createObjectNode().put("creator", "bob")));
+	}
+
+	@Test
+	void rejectsBadParameters() {
+		ObjectNode response = MoleServ.mapper.createObjectNode();
+		assertFalse(index.query(MoleServ.mapper.createObjectNode().put("phase", "lunch"), response).result);
+		assertFalse(index.query(MoleServ.mapper.createObjectNode().put("color", 5), response).result);
+		assertFalse(index.query(MoleServ.mapper.createObjectNode().put("cursor", "nonsense"), response).result);
+		assertFalse(index.query(MoleServ.mapper.createObjectNode().put("cursor", "x:game01"), response).result);
+	}
+}
@@ -0,0 +1,77 @@
+package org.chernovia.molechess;
+
+import static org.junit.jupiter.api.Assertions.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks the treap's ranks and pages against a plain sorted list after random churn.
+ */
+public class LeaderboardTest {
+
+	@Test
+	void ordersByScoreThenName() {
+		Leaderboard board = new Leaderboard();
+		board.add("carol", 10); board.add("alice", 30); board.add("bob", 10); board.add("dave", -5);
+		assertEquals(List.of("alice", "bob", "carol", "dave"), board.range(0, 10));
+		assertEquals(0, board.rank("alice", 30));
+		assertEquals(1, board.rank("bob", 10));
+		assertEquals(2, board.rank("carol", 10));
+		assertEquals(3, board.rank("dave", -5));
+		assertEquals(-1, board.rank("carol", 11), "stale score");
+		assertEquals(-1, board.rank("erin", 0));
+	}
+
+	@Test
+	void pagesThroughTheBoard() {
+		Leaderboard board = new Leaderboard();
+		for (int i = 0; i < 25; i++) board.add(String.format("p%02d", i), 100 - i);
+		assertEquals(List.of("p00", "p01", "p02"), board.range(0, 3));
+		assertEquals(List.of("p10", "p11"), board.range(10, 2));
+		assertEquals(List.of("p23", "p24"), board.range(23, 10));
+		assertTrue(board.range(25, 10).isEmpty());
+		assertTrue(board.range(40, 10).isEmpty());
+		assertTrue(board.range(5, 0).isEmpty());
+	}
+
+	@Test
+	void updatesMoveAPlayer() {
+		Leaderboard board = new Leaderboard();
+		board.add("alice", 5); board.add("bob", 10);
+		board.update("alice", 5, 20);
+		assertEquals(0, board.rank("alice", 20));
+		assertEquals(-1, board.rank("alice", 5));
+		board.update("alice", 20, 20);
+		assertEquals(2, board.size());
+		board.remove("bob", 10);
+		assertEquals(List.of("alice"), board.range(0, 10));
+		board.remove("nobody", 0);
+		assertEquals(1, board.size());
+	}
+
+	@Test
+	void matchesASortedList() {
+		Random rnd = new Random(7);
+		Leaderboard board = new Leaderboard();
+		Map<String, Long> scores = new HashMap<>();
+		for (int step = 0; step < 3000; step++) {
+			String name = "u" + rnd.nextInt(300);
+			long score = rnd.nextInt(50) - 10; //plenty of ties
+			Long old = scores.get(name);
+			if (old == null) { board.add(name, score); scores.put(name, score); }
+			else if (rnd.nextInt(4) == 0) { board.remove(name, old); scores.remove(name); }
+			else { board.update(name, old, score); scores.put(name, score); }
+		}
+		List<String> expected = new ArrayList<>(scores.keySet());
+		expected.sort((a, b) -> scores.get(a).equals(scores.get(b)) ? a.compareTo(b) : Long.compare(scores.get(b), scores.get(a)));
+		assertEquals(expected.size(), board.size());
+		for (int i = 0; i < expected.size(); i++) assertEquals(i, board.rank(expected.get(i), scores.get(expected.get(i))));
+		for (int from = 0; from < expected.size(); from += 17) {
+			assertEquals(expected.subList(from, Math.min(from + 20, expected.size())), board.range(from, 20));
+		}
+	}
+}
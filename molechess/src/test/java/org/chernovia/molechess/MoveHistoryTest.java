@@ -0,0 +1,100 @@
+package org.chernovia.molechess;
+
+import static org.junit.jupiter.api.Assertions.*;
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import com.github.bhlangonijr.chesslib.Board;
+import com.github.bhlangonijr.chesslib.Side;
+import com.github.bhlangonijr.chesslib.move.Move;
+
+/**
+ * Replays a few keyframes' worth of a real game and compares every reconstructed position
+ * with the one the board reached when the move was played.
+ */
+public class MoveHistoryTest {
+
+	static final String START = "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1";
+	static final int PLIES = MoveHistory.KEYFRAME * 3 + 5;
+
+	private final MolePlayer alice = new MolePlayer(new MoleUser(null, null, "alice"), null, MoleGame.COLOR_WHITE, Color.RED);
+	private final MolePlayer bob = new MolePlayer(new MoleUser(null, null, "bob"), null, MoleGame.COLOR_BLACK, Color.BLUE);
+	private MoveHistory history;
+	private List<String> fens, moves, dissents;
+
+	@BeforeEach
+	void playGame() {
+		history = new MoveHistory(START);
+		fens = new ArrayList<>(); moves = new ArrayList<>(); dissents = new ArrayList<>();
+		Board board = new Board(); board.loadFromFen(START);
+		for (int ply = 0; ply < PLIES; ply++) {
+			List<Move> legal = new ArrayList<>(board.legalMoves());
+			assertFalse(legal.isEmpty(), "game over at ply " + ply);
+			legal.sort(Comparator.comparing(Move::toString));
+			Move selected = legal.get((ply * 7) % legal.size()), dissent = legal.get((ply * 7 + 1) % legal.size());
+			int color = board.getSideToMove() == Side.WHITE ? MoleGame.COLOR_WHITE : MoleGame.COLOR_BLACK;
+			LinkedHashMap<MolePlayer, Move> ballots = new LinkedHashMap<>();
+			ballots.put(alice, selected);
+			if (ply % 3 != 0) ballots.put(bob, dissent); //bob skips some votes
+			board.doMove(selected);
+			history.add(color, selected, ballots, board.getFen());
+			fens.add(board.getFen()); moves.add(selected.toString()); dissents.add(ply % 3 != 0 ? dissent.toString() : null);
+		}
+	}
+
+	@Test
+	void reconstructsEveryPosition() {
+		assertEquals(PLIES, history.size());
+		assertEquals(START, history.getFen(-1));
+		for (int ply = 0; ply < PLIES; ply++) {
+			assertEquals(fens.get(ply), history.getFen(ply), "after ply " + ply);
+			MoveHistory.Ply p = history.get(ply);
+			assertEquals(ply, p.index);
+			assertEquals(moves.get(ply), p.move);
+			assertEquals(ply == 0 ? START : fens.get(ply - 1), p.fenBefore);
+			assertEquals(ply % 2 == 0 ? MoleGame.COLOR_WHITE : MoleGame.COLOR_BLACK, p.color);
+		}
+		assertNull(history.get(PLIES));
+		assertNull(history.getFen(PLIES));
+		assertEquals(moves.get(PLIES - 1), history.getLastMove());
+	}
+
+	@Test
+	void keepsBallotsWithTheirVoters() {
+		for (int ply = 0; ply < PLIES; ply++) {
+			MoveHistory.Ply p = history.get(ply);
+			assertEquals(dissents.get(ply) == null ? 1 : 2, p.votes.length);
+			assertSame(alice, p.voters[0]);
+			assertEquals(moves.get(ply), p.votes[0]);
+			if (dissents.get(ply) != null) { assertSame(bob, p.voters[1]); assertEquals(dissents.get(ply), p.votes[1]); }
+		}
+	}
+
+	@Test
+	void iteratesFromAnyPly() {
+		for (int from : new int[] { 0, 1, MoveHistory.KEYFRAME - 1, MoveHistory.KEYFRAME, MoveHistory.KEYFRAME * 2 + 3, PLIES - 1 }) {
+			Iterator<MoveHistory.Ply> it = history.iterator(from);
+			for (int ply = from; ply < PLIES; ply++) {
+				assertTrue(it.hasNext());
+				MoveHistory.Ply p = it.next();
+				assertEquals(ply, p.index);
+				assertEquals(fens.get(ply), p.fen);
+			}
+			assertFalse(it.hasNext());
+		}
+	}
+
+	@Test
+	void iteratorIgnoresLaterPlies() {
+		Iterator<MoveHistory.Ply> it = history.iterator(PLIES - 1);
+		history.add(MoleGame.COLOR_WHITE, new Move(moves.get(0), Side.WHITE), new LinkedHashMap<>(), START);
+		assertTrue(it.hasNext()); it.next();
+		assertFalse(it.hasNext(), "snapshot taken when the iterator was made");
+		assertEquals(PLIES + 1, history.size());
+	}
+}
@@ -0,0 +1,69 @@
+package org.chernovia.molechess;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Runs with the refill rates at zero, so bucket contents don't depend on timing.
+ */
+public class RateLimitsTest {
+
+	private double burst, rate, strikes, strikeRate;
+
+	@BeforeEach
+	void freezeBuckets() {
+		burst = RateLimits.BURST; rate = RateLimits.RATE; strikes = RateLimits.STRIKES; strikeRate = RateLimits.STRIKE_RATE;
+		RateLimits.RATE = 0; RateLimits.STRIKE_RATE = 0;
+	}
+
+	@AfterEach
+	void restoreBuckets() {
+		RateLimits.BURST = burst; RateLimits.RATE = rate; RateLimits.STRIKES = strikes; RateLimits.STRIKE_RATE = strikeRate;
+	}
+
+	@Test
+	void throttlesFloodsOfFrames() {
+		RateLimits.BURST = 5;
+		RateLimits limits = new RateLimits();
+		for (int i = 0; i < 5; i++) assertEquals(RateLimits.VERDICT.OK, limits.checkFrame("{}"));
+		assertEquals(RateLimits.VERDICT.THROTTLE, limits.checkFrame("{}"));
+	}
+
+	@Test
+	void throttlesOversizedFrames() {
+		RateLimits limits = new RateLimits();
+		assertEquals(RateLimits.VERDICT.OK, limits.checkFrame("x".repeat(RateLimits.MAX_FRAME)));
+		assertEquals(RateLimits.VERDICT.THROTTLE, limits.checkFrame("x".repeat(RateLimits.MAX_FRAME + 1)));
+	}
+
+	@Test
+	void limitsEachCommandSeparately() {
+		RateLimits limits = new RateLimits();
+		assertEquals(RateLimits.VERDICT.OK, limits.checkCommand("newgame"));
+		assertEquals(RateLimits.VERDICT.OK, limits.checkCommand("newgame"));
+		assertEquals(RateLimits.VERDICT.THROTTLE, limits.checkCommand("newgame"));
+		for (int i = 0; i < 5; i++) assertEquals(RateLimits.VERDICT.OK, limits.checkCommand("games_query"));
+		assertEquals(RateLimits.VERDICT.THROTTLE, limits.checkCommand("games_query"));
+		for (int i = 0; i < 100; i++) assertEquals(RateLimits.VERDICT.OK, limits.checkCommand("chat"), "no limit of its own");
+		assertEquals(RateLimits.VERDICT.OK, new RateLimits().checkCommand("newgame"), "per connection");
+	}
+
+	@Test
+	void disconnectsOnceStrikesRunOut() {
+		RateLimits.BURST = 0; RateLimits.STRIKES = 3;
+		RateLimits limits = new RateLimits();
+		for (int i = 0; i < 3; i++) assertEquals(RateLimits.VERDICT.THROTTLE, limits.checkFrame("{}"));
+		assertEquals(RateLimits.VERDICT.DISCONNECT, limits.checkFrame("{}"));
+		for (int i = 0; i < 3; i++) assertEquals(RateLimits.VERDICT.OK, limits.checkCommand("leaderboard"));
+		assertEquals(RateLimits.VERDICT.DISCONNECT, limits.checkCommand("leaderboard"), "command violations share the strikes");
+	}
+
+	@Test
+	void warnsAtMostOncePerInterval() {
+		RateLimits limits = new RateLimits();
+		assertTrue(limits.shouldWarn());
+		assertFalse(limits.shouldWarn());
+	}
+}
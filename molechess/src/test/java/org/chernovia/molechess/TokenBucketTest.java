@@ -0,0 +1,39 @@
+package org.chernovia.molechess;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+public class TokenBucketTest {
+
+	@Test
+	void startsFullAndEmpties() {
+		TokenBucket bucket = new TokenBucket(3, 0);
+		for (int i = 0; i < 3; i++) assertTrue(bucket.tryTake());
+		assertFalse(bucket.tryTake());
+		assertFalse(bucket.tryTake(.5));
+	}
+
+	@Test
+	void takesFractions() {
+		TokenBucket bucket = new TokenBucket(1, 0);
+		assertTrue(bucket.tryTake(.25)); assertTrue(bucket.tryTake(.75));
+		assertFalse(bucket.tryTake(.01));
+		assertFalse(new TokenBucket(1, 0).tryTake(2), "more than the capacity");
+	}
+
+	@Test
+	void refillsOverTime() throws InterruptedException {
+		TokenBucket bucket = new TokenBucket(2, 1000); //one token a millisecond
+		assertTrue(bucket.tryTake(2));
+		Thread.sleep(20);
+		assertTrue(bucket.tryTake(2));
+	}
+
+	@Test
+	void refillsNoFurtherThanItsCapacity() throws InterruptedException {
+		TokenBucket bucket = new TokenBucket(2, 1000);
+		Thread.sleep(20);
+		assertTrue(bucket.tryTake()); assertTrue(bucket.tryTake());
+		assertFalse(bucket.tryTake(1.5), "at most a millisecond or so has passed");
+	}
+}
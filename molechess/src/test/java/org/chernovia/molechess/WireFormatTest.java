@@ -0,0 +1,95 @@
+package org.chernovia.molechess;
+
+import static org.junit.jupiter.api.Assertions.*;
+import java.util.HashSet;
+import org.junit.jupiter.api.Test;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.POJONode;
+
+public class WireFormatTest {
+
+	//table names, names missing from the table, and names that look like aliases
+	private static ObjectNode sample() {
+		ObjectNode node = MoleServ.mapper.createObjectNode();
+		node.put("title", "lobby game").put("play_col", "#C8FFFF").put("brand_new_field", 7).put("28", "digits").put("~x", "tilde");
+		ArrayNode players = node.putArray("players");
+		for (int i = 0; i < 3; i++) {
+			ObjectNode player = players.addObject();
+			player.put("name", "p" + i).put("score", i * 100).put("away", i == 1).putNull("vote");
+			player.putObject("move").put("from", "e2").put("to", "e4");
+		}
+		node.putArray("votes").add(1).add("e2e4").addArray().add(2.5);
+		return node;
+	}
+
+	@Test
+	void roundTripsEveryFormat() throws Exception {
+		for (WireFormat format : WireFormat.values()) assertEquals(sample(), format.decode(format.encode(sample())), format.name());
+	}
+
+	@Test
+	void aliasesTableNamesOnly() throws Exception {
+		for (WireFormat format : new WireFormat[] { WireFormat.SMILE, WireFormat.CBOR }) {
+			JsonNode raw = format.mapper.readTree(format.encode(sample())); //as sent, before the client unaliases it
+			assertEquals("#C8FFFF", raw.get(String.valueOf(indexOf("play_col"))).asText());
+			assertNull(raw.get("play_col"));
+			assertEquals(7, raw.get("brand_new_field").asInt(), "unknown names pass through");
+			assertEquals("digits", raw.get("~28").asText());
+			assertEquals("tilde", raw.get("~~x").asText());
+			assertEquals("p0", raw.get(String.valueOf(indexOf("players"))).get(0).get(String.valueOf(indexOf("name"))).asText());
+			assertTrue(raw.get(String.valueOf(indexOf("players"))).get(0).has("vote"));
+		}
+		assertEquals(sample(), WireFormat.JSON.mapper.readTree(WireFormat.JSON.encode(sample())), "JSON is sent as is");
+	}
+
+	@Test
+	void aliasesInvert() {
+		for (String name : WireFormat.NAMES) assertEquals(name, WireFormat.unalias(WireFormat.alias(name)));
+		for (String name : new String[] { "", "7", "~", "~~", "12abc", "x~", "name2" }) {
+			assertEquals(name, WireFormat.unalias(WireFormat.alias(name)), name);
+		}
+		assertEquals("name2", WireFormat.alias("name2"));
+	}
+
+	@Test
+	void keepsTheTableUnambiguous() {
+		HashSet<String> seen = new HashSet<>();
+		ArrayNode table = WireFormat.namesToJSON();
+		assertEquals(WireFormat.NAMES.length, table.size());
+		for (int i = 0; i < table.size(); i++) {
+			String name = table.get(i).asText();
+			assertEquals(WireFormat.NAMES[i], name);
+			assertTrue(seen.add(name), "duplicate " + name);
+			assertFalse(Character.isDigit(name.charAt(0)) || name.charAt(0) == '~', name + " would clash with an alias");
+		}
+	}
+
+	@Test
+	void wrapsForTheFormat() throws Exception {
+		ObjectNode node = sample();
+		assertSame(node, WireFormat.JSON.wrap(node));
+		POJONode encoded = new POJONode(new WireFormat.Encoded(node, MoleServ.mapper.writeValueAsString(node)));
+		for (WireFormat format : new WireFormat[] { WireFormat.SMILE, WireFormat.CBOR }) {
+			JsonNode wrapped = format.wrap(node);
+			assertTrue(wrapped.isBinary());
+			assertEquals(node, format.decode(wrapped.binaryValue()));
+			assertArrayEquals(wrapped.binaryValue(), format.wrap(encoded).binaryValue(), "shared fragments encode the same");
+		}
+	}
+
+	@Test
+	void parsesFormatNames() {
+		assertSame(WireFormat.SMILE, WireFormat.parse("smile"));
+		assertSame(WireFormat.CBOR, WireFormat.parse("Cbor"));
+		assertSame(WireFormat.JSON, WireFormat.parse("json"));
+		assertSame(WireFormat.JSON, WireFormat.parse("msgpack"));
+		assertSame(WireFormat.JSON, WireFormat.parse(null));
+	}
+
+	private static int indexOf(String name) {
+		for (int i = 0; i < WireFormat.NAMES.length; i++) if (WireFormat.NAMES[i].equals(name)) return i;
+		throw new IllegalArgumentException(name);
+	}
+}